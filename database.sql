@@ -1,11 +1,46 @@
 CREATE TABLE users(
     username VARCHAR(100) not null unique PRIMARY KEY ,
     password VARCHAR(200) not null ,
-    name VARCHAR(100) not null,
-    token VARCHAR(100) ,
-    token_expired_at BIGINT
+    name VARCHAR(100) not null
 );
 
+CREATE TABLE sessions(
+    token_hash CHAR(64) not null primary key,
+    username VARCHAR(100) not null,
+    device VARCHAR(100),
+    created_at BIGINT not null,
+    expired_at BIGINT not null,
+    CONSTRAINT fk_users_sessions FOREIGN KEY (username) REFERENCES users (username) ON DELETE CASCADE
+);
+
+CREATE INDEX idx_sessions_username_created_at ON sessions (username, created_at);
+
+CREATE INDEX idx_sessions_expired_at ON sessions (expired_at);
+
+CREATE TABLE revoked_tokens(
+    token_hash CHAR(64) not null primary key,
+    username VARCHAR(100) not null,
+    revoked_at BIGINT not null,
+    expired_at BIGINT not null
+);
+
+CREATE INDEX idx_revoked_tokens_expired_at ON revoked_tokens (expired_at);
+
+-- signed token revocations are refreshed incrementally by when they were made
+CREATE INDEX idx_revoked_tokens_revoked_at ON revoked_tokens (revoked_at);
+
+-- signed tokens of the user issued before not_before are rejected, e.g. after a password change
+CREATE TABLE revoked_users(
+    username VARCHAR(100) not null primary key,
+    not_before BIGINT not null,
+    expired_at BIGINT not null,
+    CONSTRAINT fk_users_revoked_users FOREIGN KEY (username) REFERENCES users (username) ON DELETE CASCADE
+);
+
+CREATE INDEX idx_revoked_users_not_before ON revoked_users (not_before);
+
+CREATE INDEX idx_revoked_users_expired_at ON revoked_users (expired_at);
+
 CREATE TABLE contacts(
     id VARCHAR(100) not null primary key,
     username VARCHAR(100) not null ,
@@ -13,9 +48,44 @@ CREATE TABLE contacts(
     last_name VARCHAR(100),
     phone VARCHAR(100),
     email VARCHAR(100),
+    phone_normalized VARCHAR(100),
+    email_normalized VARCHAR(100),
+    email_domain VARCHAR(100),
+    created_at BIGINT not null,
     CONSTRAINT fk_users_contact FOREIGN KEY (username) REFERENCES users (username)
 );
 
+CREATE INDEX idx_contacts_username_id ON contacts (username, id);
+
+-- sorted search pages, id breaks ties and is the keyset order
+CREATE INDEX idx_contacts_username_first_name_id ON contacts (username, first_name, id);
+CREATE INDEX idx_contacts_username_last_name_id ON contacts (username, last_name, id);
+CREATE INDEX idx_contacts_username_email_id ON contacts (username, email, id);
+CREATE INDEX idx_contacts_username_created_at_id ON contacts (username, created_at, id);
+
+-- exact and prefix lookups on the normalized phone and email
+CREATE INDEX idx_contacts_username_phone_normalized ON contacts (username, phone_normalized varchar_pattern_ops);
+CREATE INDEX idx_contacts_username_email_normalized ON contacts (username, email_normalized);
+CREATE INDEX idx_contacts_username_email_domain ON contacts (username, email_domain);
+
+-- trigram indexes so the LIKE '%...%' filters of contact search don't scan every contact
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX idx_contacts_first_name_trgm ON contacts USING gin (first_name gin_trgm_ops);
+CREATE INDEX idx_contacts_last_name_trgm ON contacts USING gin (last_name gin_trgm_ops);
+CREATE INDEX idx_contacts_phone_trgm ON contacts USING gin (phone gin_trgm_ops);
+CREATE INDEX idx_contacts_email_trgm ON contacts USING gin (email gin_trgm_ops);
+
+-- typeahead prefixes as byte-wise ranges, so they stay index scans with bound parameters
+CREATE INDEX idx_contacts_username_first_name_prefix ON contacts (username, lower(first_name) COLLATE "C");
+CREATE INDEX idx_contacts_username_last_name_prefix ON contacts (username, lower(last_name) COLLATE "C");
+CREATE INDEX idx_contacts_username_full_name_prefix ON contacts (username, lower(first_name || ' ' || last_name) COLLATE "C");
+CREATE INDEX idx_contacts_username_email_prefix ON contacts (username, lower(email) COLLATE "C");
+
+-- phonetic keys for fuzzy name search
+CREATE EXTENSION IF NOT EXISTS fuzzystrmatch;
+CREATE INDEX idx_contacts_username_first_name_soundex ON contacts (username, soundex(first_name));
+CREATE INDEX idx_contacts_username_last_name_soundex ON contacts (username, soundex(last_name));
+
 CREATE TABLE addresses(
     id VARCHAR(100) not null  primary key ,
     contact_id VARCHAR(100) not null,
@@ -25,4 +95,7 @@ CREATE TABLE addresses(
     street VARCHAR(100),
     postal_code VARCHAR(100),
     CONSTRAINT fk_contact_addresses FOREIGN KEY (contact_id) REFERENCES contacts (id)
-)
+);
+
+-- addresses of a contact, and of a whole page of contacts for expand=addresses
+CREATE INDEX idx_addresses_contact_id ON addresses (contact_id, id);
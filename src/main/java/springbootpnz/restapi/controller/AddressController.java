@@ -11,6 +11,7 @@ import springbootpnz.restapi.model.WebResponse;
 import springbootpnz.restapi.service.AddressService;
 
 import java.util.List;
+import java.util.Set;
 
 @RestController
 public class AddressController {
@@ -53,11 +54,13 @@ public class AddressController {
             path = "/api/contacts/{contactId}/addresses/{addressId}",
             produces = MediaType.APPLICATION_JSON_VALUE
     )
-    public WebResponse<AddressResponse> get(User user,
-                                            @PathVariable(value = "contactId") String contactId,
-                                            @PathVariable(value = "addressId") String addressId) {
+    public WebResponse<Object> get(User user,
+                                   @PathVariable(value = "contactId") String contactId,
+                                   @PathVariable(value = "addressId") String addressId,
+                                   @RequestParam(value = "fields", required = false) String fields) {
+        Set<String> projection = Fields.ADDRESS.parse(fields);
         AddressResponse addressResponse = addressService.get(user,contactId,addressId);
-        return WebResponse.<AddressResponse>builder().data(addressResponse).build();
+        return WebResponse.builder().data(Fields.ADDRESS.pick(addressResponse, projection)).build();
     };
 
 
@@ -66,10 +69,12 @@ public class AddressController {
             path = "/api/contacts/{contactId}/addresses",
             produces = MediaType.APPLICATION_JSON_VALUE
     )
-    public WebResponse<List<AddressResponse>> getAllByContact(User user,
-                                            @PathVariable(value = "contactId") String contactId) {
+    public WebResponse<List<?>> getAllByContact(User user,
+                                                @PathVariable(value = "contactId") String contactId,
+                                                @RequestParam(value = "fields", required = false) String fields) {
+        Set<String> projection = Fields.ADDRESS.parse(fields);
         List<AddressResponse> addresses = addressService.getByContact(user,contactId);
-        return WebResponse.<List<AddressResponse>>builder().data(addresses).build();
+        return WebResponse.<List<?>>builder().data(Fields.ADDRESS.pick(addresses, projection)).build();
     };
 
     @DeleteMapping(
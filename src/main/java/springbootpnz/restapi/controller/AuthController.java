@@ -1,11 +1,13 @@
 package springbootpnz.restapi.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import springbootpnz.restapi.entity.Session;
 import springbootpnz.restapi.entity.User;
 import springbootpnz.restapi.model.LoginUserRequest;
 import springbootpnz.restapi.model.TokenResponse;
@@ -22,8 +24,8 @@ public class AuthController {
             consumes = MediaType.APPLICATION_JSON_VALUE,
             produces = MediaType.APPLICATION_JSON_VALUE
     )
-    public WebResponse<TokenResponse> login(@RequestBody LoginUserRequest request) {
-        TokenResponse tokenResponse = authService.login(request);
+    public WebResponse<TokenResponse> login(@RequestBody LoginUserRequest request, HttpServletRequest servletRequest) {
+        TokenResponse tokenResponse = authService.login(request, servletRequest.getRemoteAddr());
         return WebResponse.<TokenResponse>builder().data(tokenResponse).build();
     }
 
@@ -33,8 +35,17 @@ public class AuthController {
             path = "/api/users/logout",
             produces = MediaType.APPLICATION_JSON_VALUE
     )
-    public WebResponse<String> login(User user) {
-        authService.logout(user);
+    public WebResponse<String> login(Session session) {
+        authService.logout(session);
         return WebResponse.<String>builder().data("OK").build();
     };
+
+    @DeleteMapping(
+            path = "/api/users/sessions",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<String> logoutAll(User user) {
+        authService.logoutAll(user);
+        return WebResponse.<String>builder().data("OK").build();
+    }
 }
@@ -2,19 +2,28 @@ package springbootpnz.restapi.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import springbootpnz.restapi.entity.User;
 import springbootpnz.restapi.model.*;
+import springbootpnz.restapi.search.EstimatedPage;
+import springbootpnz.restapi.search.PartialSlice;
 import springbootpnz.restapi.service.ContactService;
 
 import java.util.List;
+import java.util.Set;
 
 @RestController
 public class ContactController {
     @Autowired
     private ContactService contactService;
 
+    private static final Set<String> SORTABLE = Set.of("firstName", "lastName", "email", "createdAt");
 
     @PostMapping(
         path = "/api/contacts",
@@ -29,13 +38,44 @@ public class ContactController {
 
 
     @GetMapping(
-            path = "/api/contacts/{contactId}",
+            path = "/api/contacts/suggest",
             produces = MediaType.APPLICATION_JSON_VALUE
     )
-    public WebResponse<ContactResponse> get(User user, @PathVariable String contactId){
-        ContactResponse contactResponse = contactService.get(user, contactId);
+    public WebResponse<List<ContactResponse>> suggest(User user,
+                                                      @RequestParam(value = "prefix") String prefix,
+                                                      @RequestParam(value = "limit", defaultValue = "10") Integer limit){
+        List<ContactResponse> contactResponses = contactService.suggest(user, prefix, limit);
 
-        return WebResponse.<ContactResponse>builder().data(contactResponse).build();
+        return WebResponse.<List<ContactResponse>>builder().data(contactResponses).build();
+    }
+
+
+    @GetMapping(
+            path = "/api/contacts/fuzzy",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<List<ContactMatchResponse>> fuzzy(User user,
+                                                         @RequestParam(value = "name") String name,
+                                                         @RequestParam(value = "limit", defaultValue = "10") Integer limit){
+        List<ContactMatchResponse> matches = contactService.fuzzy(user, name, limit);
+
+        return WebResponse.<List<ContactMatchResponse>>builder().data(matches).build();
+    }
+
+
+    @GetMapping(
+            path = "/api/contacts/{contactId}",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public WebResponse<Object> get(User user,
+                                   @PathVariable String contactId,
+                                   @RequestParam(value = "fields", required = false) String fields,
+                                   @RequestParam(value = "expand", required = false) String expand){
+        Set<String> projection = Fields.CONTACT.parse(fields);
+        boolean expandAddresses = toExpandAddresses(expand);
+        ContactResponse contactResponse = contactService.get(user, contactId, expandAddresses);
+
+        return WebResponse.builder().data(Fields.CONTACT.pick(contactResponse, expandAddresses ? Fields.with(projection, "addresses") : projection)).build();
     };
 
 
@@ -68,28 +108,117 @@ public class ContactController {
             path = "/api/contacts",
             produces = MediaType.APPLICATION_JSON_VALUE
     )
-    public WebResponse<List<ContactResponse>> search(User user,
-                                                     @RequestParam(value = "name", required = false) String name ,
-                                                     @RequestParam(value = "email", required = false) String email,
-                                                     @RequestParam(value = "phone", required = false) String phone,
-                                                     @RequestParam(value = "page", required = true, defaultValue = "0") Integer page,
-                                                     @RequestParam(value = "size", required = true, defaultValue =  "10") Integer size){
+    public WebResponse<List<?>> search(User user,
+                                       @RequestParam(value = "name", required = false) String name ,
+                                       @RequestParam(value = "email", required = false) String email,
+                                       @RequestParam(value = "phone", required = false) String phone,
+                                       @RequestParam(value = "phoneExact", required = false) String phoneExact,
+                                       @RequestParam(value = "phonePrefix", required = false) String phonePrefix,
+                                       @RequestParam(value = "emailExact", required = false) String emailExact,
+                                       @RequestParam(value = "emailDomain", required = false) String emailDomain,
+                                       @RequestParam(value = "page", required = true, defaultValue = "0") Integer page,
+                                       @RequestParam(value = "size", required = true, defaultValue =  "10") Integer size,
+                                       @RequestParam(value = "sort", required = false) String sort,
+                                       @RequestParam(value = "cursor", required = false) String cursor,
+                                       @RequestParam(value = "total", required = false) String total,
+                                       @RequestParam(value = "fields", required = false) String fields,
+                                       @RequestParam(value = "expand", required = false) String expand){
+        Set<String> projection = Fields.CONTACT.parse(fields);
+        boolean expandAddresses = toExpandAddresses(expand);
         SearchContactRequest searchRequest = SearchContactRequest.builder()
                 .page(page)
                 .size(size)
                 .name(name)
                 .email(email)
                 .phone(phone)
+                .phoneExact(phoneExact)
+                .phonePrefix(phonePrefix)
+                .emailExact(emailExact)
+                .emailDomain(emailDomain)
+                .sort(toSort(sort))
+                .cursor(cursor)
+                .total(toTotalType(total))
+                .expandAddresses(expandAddresses)
+                .namesOnly(projection != null && Fields.NAMES.containsAll(projection))
                 .build();
-
-       Page<ContactResponse> contactResponses =  contactService.search(user,searchRequest);
-       return WebResponse.<List<ContactResponse>>builder()
-               .data(contactResponses.getContent())
+        Set<String> picked = expandAddresses ? Fields.with(projection, "addresses") : projection;
+
+        // cursor mode, an empty cursor asks for the first page
+        if (cursor != null) {
+            Window<ContactResponse> window = contactService.scroll(user, searchRequest);
+            return WebResponse.<List<?>>builder()
+                    .data(Fields.CONTACT.pick(window.getContent(), picked))
+                    .paging(PagingResponse.builder()
+                            .size(size)
+                            .next(window.hasNext() ? contactService.encodeCursor(window.positionAt(window.size() - 1)) : null)
+                            .build())
+                    .build();
+        }
+
+       Slice<ContactResponse> contactResponses =  contactService.search(user,searchRequest);
+       return WebResponse.<List<?>>builder()
+               .data(Fields.CONTACT.pick(contactResponses.getContent(), picked))
                .paging(PagingResponse.builder()
                        .currentPage(contactResponses.getNumber())
-                       .totalPage(contactResponses.getTotalPages())
+                       .totalPage(contactResponses instanceof Page<ContactResponse> contactPage ? contactPage.getTotalPages() : null)
                        .size(contactResponses.getSize())
+                       .hasNext(contactResponses.hasNext())
+                       .totalType(totalType(contactResponses))
                        .build())
+               .partial(contactResponses instanceof PartialSlice<ContactResponse> ? Boolean.TRUE : null)
                .build();
     }
+
+    /**
+     * expand=addresses embeds each contact's addresses, loaded for the whole page at once.
+     */
+    private boolean toExpandAddresses(String expand) {
+        if (expand == null) {
+            return false;
+        }
+        if (!expand.equals("addresses")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "expand must be addresses");
+        }
+        return true;
+    }
+
+    /**
+     * The kind of total the search actually produced, which can be better than the one
+     * asked for, e.g. an exact count from the in-memory index, or none on a partial page.
+     */
+    private static TotalType totalType(Slice<?> slice) {
+        if (slice instanceof EstimatedPage<?>) {
+            return TotalType.ESTIMATED;
+        }
+        return slice instanceof Page<?> ? TotalType.EXACT : TotalType.NONE;
+    }
+
+    private TotalType toTotalType(String total) {
+        if (total == null) {
+            return null;
+        }
+        try {
+            return TotalType.of(total);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "total must be one of exact, estimated or none");
+        }
+    }
+
+    /**
+     * sort=property or sort=property,asc|desc; ties are always broken by id.
+     */
+    private Sort toSort(String sort) {
+        if (sort == null) {
+            return null;
+        }
+        String[] parts = sort.split(",", -1);
+        if (parts.length > 2 || !SORTABLE.contains(parts[0])) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort must be one of firstName, lastName, email or createdAt");
+        }
+        try {
+            return Sort.by(parts.length == 2 ? Sort.Direction.fromString(parts[1]) : Sort.Direction.ASC, parts[0]);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort direction must be asc or desc");
+        }
+    }
 }
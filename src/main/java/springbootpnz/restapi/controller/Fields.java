@@ -0,0 +1,151 @@
+package springbootpnz.restapi.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import springbootpnz.restapi.model.AddressResponse;
+import springbootpnz.restapi.model.ContactResponse;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * The fields= parameter: a comma separated subset of a response's properties. Parsed
+ * fields keep the response's property order, so the same subset is always the same set
+ * and the JSON keys come out in a stable order. Properties are read through an accessor
+ * per name, and a picked response is written as a JSON object straight from its values.
+ */
+final class Fields<T> {
+
+    static final Fields<ContactResponse> CONTACT = new Fields<ContactResponse>()
+            .field("id", ContactResponse::getId)
+            .field("firstName", ContactResponse::getFirstName)
+            .field("lastName", ContactResponse::getLastName)
+            .field("phone", ContactResponse::getPhone)
+            .field("email", ContactResponse::getEmail)
+            .expansion("addresses", ContactResponse::getAddresses);
+
+    static final Fields<AddressResponse> ADDRESS = new Fields<AddressResponse>()
+            .field("id", AddressResponse::getId)
+            .field("street", AddressResponse::getStreet)
+            .field("city", AddressResponse::getCity)
+            .field("province", AddressResponse::getProvince)
+            .field("country", AddressResponse::getCountry)
+            .field("postalCode", AddressResponse::getPostalCode);
+
+    // contact fields the names-only search reads
+    static final Set<String> NAMES = Set.of("id", "firstName", "lastName");
+
+    private final List<String> allowed = new ArrayList<>();
+
+    private final Map<String, Function<T, ?>> accessors = new LinkedHashMap<>();
+
+    private Fields() {
+    }
+
+    private Fields<T> field(String name, Function<T, ?> accessor) {
+        allowed.add(name);
+        accessors.put(name, accessor);
+        return this;
+    }
+
+    // pickable, but not through fields=
+    private Fields<T> expansion(String name, Function<T, ?> accessor) {
+        accessors.put(name, accessor);
+        return this;
+    }
+
+    /**
+     * Null when no fields were asked for, meaning every property.
+     */
+    Set<String> parse(String fields) {
+        if (fields == null) {
+            return null;
+        }
+        Set<String> requested = new HashSet<>();
+        for (String field : fields.split(",", -1)) {
+            String name = field.strip();
+            if (!allowed.contains(name)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "fields must be a subset of " + String.join(", ", allowed));
+            }
+            requested.add(name);
+        }
+
+        Set<String> parsed = new LinkedHashSet<>();
+        for (String name : allowed) {
+            if (requested.contains(name)) {
+                parsed.add(name);
+            }
+        }
+        return Collections.unmodifiableSet(parsed);
+    }
+
+    /**
+     * The response itself without fields, otherwise only the requested properties.
+     */
+    Object pick(T response, Set<String> fields) {
+        if (fields == null) {
+            return response;
+        }
+        return picker(fields).apply(response);
+    }
+
+    List<?> pick(List<T> responses, Set<String> fields) {
+        if (fields == null) {
+            return responses;
+        }
+        Function<T, Picked> picker = picker(fields);
+        return responses.stream().map(picker).toList();
+    }
+
+    /**
+     * The fields plus one more property, null staying null.
+     */
+    static Set<String> with(Set<String> fields, String field) {
+        if (fields == null) {
+            return null;
+        }
+        Set<String> with = new LinkedHashSet<>(fields);
+        with.add(field);
+        return with;
+    }
+
+    // names and accessors are looked up once for a whole list
+    @SuppressWarnings("unchecked")
+    private Function<T, Picked> picker(Set<String> fields) {
+        String[] names = fields.toArray(String[]::new);
+        Function<T, ?>[] getters = new Function[names.length];
+        for (int i = 0; i < names.length; i++) {
+            getters[i] = accessors.get(names[i]);
+        }
+        return response -> {
+            Object[] values = new Object[getters.length];
+            for (int i = 0; i < getters.length; i++) {
+                values[i] = getters[i].apply(response);
+            }
+            return new Picked(names, values);
+        };
+    }
+
+    private record Picked(String[] names, Object[] values) implements JsonSerializable {
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+            generator.writeStartObject(this);
+            for (int i = 0; i < names.length; i++) {
+                generator.writeFieldName(names[i]);
+                serializers.defaultSerializeValue(values[i], generator);
+            }
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider serializers, TypeSerializer typeSerializer) throws IOException {
+            serialize(generator, serializers);
+        }
+    }
+}
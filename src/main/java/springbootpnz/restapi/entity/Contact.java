@@ -29,10 +29,29 @@ public class Contact {
 
     private String email;
 
+    @Column(name = "phone_normalized")
+    private String phoneNormalized;
+
+    @Column(name = "email_normalized")
+    private String emailNormalized;
+
+    @Column(name = "email_domain")
+    private String emailDomain;
+
+    @Column(name = "created_at")
+    private Long createdAt;
+
     @ManyToOne
     @JoinColumn(name = "username", referencedColumnName = "username")
     private User user;
 
     @OneToMany(mappedBy = "contact")
     private List<Address> addresses;
+
+    @PrePersist
+    void onCreate() {
+        if (createdAt == null) {
+            createdAt = System.currentTimeMillis();
+        }
+    }
 }
@@ -0,0 +1,28 @@
+package springbootpnz.restapi.entity;
+
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "revoked_tokens")
+public class RevokedToken {
+    @Id
+    @Column(name = "token_hash")
+    private String tokenHash;
+
+    private String username;
+
+    @Column(name = "revoked_at")
+    private Long revokedAt;
+
+    @Column(name = "expired_at")
+    private Long expiredAt;
+}
@@ -0,0 +1,25 @@
+package springbootpnz.restapi.entity;
+
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "revoked_users")
+public class RevokedUser {
+    @Id
+    private String username;
+
+    @Column(name = "not_before")
+    private Long notBefore;
+
+    @Column(name = "expired_at")
+    private Long expiredAt;
+}
@@ -0,0 +1,32 @@
+package springbootpnz.restapi.entity;
+
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "sessions")
+public class Session {
+    @Id
+    @Column(name = "token_hash")
+    private String tokenHash;
+
+    @ManyToOne
+    @JoinColumn(name = "username", referencedColumnName = "username")
+    private User user;
+
+    private String device;
+
+    @Column(name = "created_at")
+    private Long createdAt;
+
+    @Column(name = "expired_at")
+    private Long expiredAt;
+}
@@ -24,11 +24,6 @@ public class User {
 
     private String name;
 
-    private String token;
-
-    @Column(name = "token_expired_at")
-    private Long tokenExpiredAt;
-
     @OneToMany(mappedBy = "user")
     private List<Contact> contacts;
 }
@@ -0,0 +1,17 @@
+package springbootpnz.restapi.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ContactMatchResponse {
+
+    private ContactResponse contact;
+
+    private double score;
+}
@@ -1,5 +1,6 @@
 package springbootpnz.restapi.model;
 
+import jakarta.annotation.Nullable;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
@@ -20,4 +21,8 @@ public class LoginUserRequest {
     @NotBlank
     @Size(min = 6, max = 100)
     private String password;
+
+    @Nullable
+    @Size(max = 100)
+    private String device;
 }
@@ -13,7 +13,13 @@ public class PagingResponse {
 
     private int currentPage;
 
-    private int totalPage;
+    private Integer totalPage;
 
     private int size;
+
+    private Boolean hasNext;
+
+    private TotalType totalType;
+
+    private String next;
 }
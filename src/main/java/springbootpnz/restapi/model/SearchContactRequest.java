@@ -6,6 +6,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Sort;
 
 @Data
 @AllArgsConstructor
@@ -21,6 +22,32 @@ public class SearchContactRequest {
     @Nullable
     private String phone;
 
+    @Nullable
+    private String phoneExact;
+
+    @Nullable
+    private String phonePrefix;
+
+    @Nullable
+    private String emailExact;
+
+    @Nullable
+    private String emailDomain;
+
+    @Nullable
+    private Sort sort;
+
+    @Nullable
+    private String cursor;
+
+    @Nullable
+    private TotalType total;
+
+    private boolean expandAddresses;
+
+    // only id, firstName and lastName are read
+    private boolean namesOnly;
+
     @NotNull
     private Integer page;
 
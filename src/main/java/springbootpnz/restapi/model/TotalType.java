@@ -0,0 +1,26 @@
+package springbootpnz.restapi.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * How the total of a paged search was computed: an exact count, the planner's row
+ * estimate, or not at all (the response only says whether there is a next page).
+ */
+public enum TotalType {
+    EXACT,
+    ESTIMATED,
+    NONE;
+
+    @JsonValue
+    public String value() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    @JsonCreator
+    public static TotalType of(String value) {
+        return TotalType.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
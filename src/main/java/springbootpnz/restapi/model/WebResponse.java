@@ -15,4 +15,6 @@ public class WebResponse<T> {
     private String errors;
 
     private PagingResponse paging;
+
+    private Boolean partial;
 }
@@ -9,7 +9,7 @@ import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface AddressRepository extends JpaRepository<Address, String> {
+public interface AddressRepository extends JpaRepository<Address, String>, AddressRepositoryCustom {
 
     Optional<Address> findFirstByContactAndId(Contact contact, String id);
 
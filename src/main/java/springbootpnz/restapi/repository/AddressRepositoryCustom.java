@@ -0,0 +1,22 @@
+package springbootpnz.restapi.repository;
+
+import springbootpnz.restapi.model.AddressResponse;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public interface AddressRepositoryCustom {
+
+    /**
+     * Addresses of the contact read straight into {@link AddressResponse}, without
+     * loading Address entities. An addressId narrows it down to that one address.
+     */
+    List<AddressResponse> findResponses(String contactId, String addressId);
+
+    /**
+     * Addresses of all these contacts in one query, by contact id. Contacts without
+     * addresses are left out of the map.
+     */
+    Map<String, List<AddressResponse>> findResponsesByContacts(Collection<String> contactIds);
+}
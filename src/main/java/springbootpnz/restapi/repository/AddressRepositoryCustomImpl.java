@@ -0,0 +1,63 @@
+package springbootpnz.restapi.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.TypedQuery;
+import springbootpnz.restapi.model.AddressResponse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+public class AddressRepositoryCustomImpl implements AddressRepositoryCustom {
+
+    // every column through the all-args constructor, nothing enters the persistence context
+    private static final String RESPONSE = "SELECT new springbootpnz.restapi.model.AddressResponse(a.id, a.street, a.city, a.province, a.country, a.postalCode)";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<AddressResponse> findResponses(String contactId, String addressId) {
+        TypedQuery<AddressResponse> query = entityManager.createQuery(RESPONSE + where(addressId), AddressResponse.class);
+        return bind(query, contactId, addressId).getResultList();
+    }
+
+    @Override
+    public Map<String, List<AddressResponse>> findResponsesByContacts(Collection<String> contactIds) {
+        if (contactIds.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, List<AddressResponse>> addresses = new HashMap<>();
+        entityManager.createQuery("SELECT a.contact.id AS contactId, a.id AS id, a.street AS street, a.city AS city, a.province AS province, " +
+                        "a.country AS country, a.postalCode AS postalCode FROM Address a WHERE a.contact.id IN :contactIds ORDER BY a.contact.id, a.id", Tuple.class)
+                .setParameter("contactIds", contactIds)
+                .getResultStream()
+                .forEach(tuple -> addresses.computeIfAbsent(tuple.get("contactId", String.class), key -> new ArrayList<>())
+                        .add(AddressResponse.builder()
+                                .id(tuple.get("id", String.class))
+                                .street(tuple.get("street", String.class))
+                                .city(tuple.get("city", String.class))
+                                .province(tuple.get("province", String.class))
+                                .country(tuple.get("country", String.class))
+                                .postalCode(tuple.get("postalCode", String.class))
+                                .build()));
+        return addresses;
+    }
+
+    private static String where(String addressId) {
+        return " FROM Address a WHERE a.contact.id = :contactId" + (Objects.nonNull(addressId) ? " AND a.id = :addressId" : "");
+    }
+
+    private static <T> TypedQuery<T> bind(TypedQuery<T> query, String contactId, String addressId) {
+        query.setParameter("contactId", contactId);
+        if (Objects.nonNull(addressId)) {
+            query.setParameter("addressId", addressId);
+        }
+        return query;
+    }
+}
@@ -0,0 +1,22 @@
+package springbootpnz.restapi.repository;
+
+import springbootpnz.restapi.entity.Contact;
+
+/**
+ * The columns of a contact that reads and the search indexes work with, read straight
+ * into a record instead of a managed entity.
+ */
+public record ContactDoc(String id, String firstName, String lastName, String phone, String email) {
+
+    public ContactDoc(String id, String firstName, String lastName) {
+        this(id, firstName, lastName, null, null);
+    }
+
+    public static ContactDoc of(Contact contact) {
+        return new ContactDoc(contact.getId(), contact.getFirstName(), contact.getLastName(), contact.getPhone(), contact.getEmail());
+    }
+
+    public String fullName() {
+        return lastName == null ? null : firstName + " " + lastName;
+    }
+}
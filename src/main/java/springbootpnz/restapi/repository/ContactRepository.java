@@ -7,10 +7,15 @@ import org.springframework.stereotype.Repository;
 import springbootpnz.restapi.entity.Contact;
 import springbootpnz.restapi.entity.User;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ContactRepository extends JpaRepository<Contact, String>, JpaSpecificationExecutor<Contact> {
+public interface ContactRepository extends JpaRepository<Contact, String>, JpaSpecificationExecutor<Contact>, ContactRepositoryCustom {
 
     Optional<Contact> findFirstByUserAndId(User user, String id);
+
+    boolean existsByIdAndUserUsername(String id, String username);
+
+    List<ContactDoc> findAllByUserUsername(String username);
 }
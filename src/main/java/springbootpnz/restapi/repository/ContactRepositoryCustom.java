@@ -0,0 +1,78 @@
+package springbootpnz.restapi.repository;
+
+import org.springframework.data.domain.Sort;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+public interface ContactRepositoryCustom {
+
+    /**
+     * Contact search page ordered by one of id, firstName, lastName, email or createdAt,
+     * then id; an unsorted sort means id ascending. Null filters are left out, and with
+     * afterId only contacts after that id are returned, for keyset paging in id order.
+     * Contacts are read into records instead of managed entities, with only the columns
+     * asked for.
+     */
+    List<ContactDoc> searchDocs(String username, Filter filter, Columns columns, Sort sort, String afterId, long offset, int limit);
+
+    /**
+     * The user's contact with this id as a record.
+     */
+    Optional<ContactDoc> findDoc(String username, String id);
+
+    /**
+     * Number of contacts a {@link #searchDocs} without afterId can return.
+     */
+    long searchCount(String username, Filter filter);
+
+    /**
+     * Cancels any statement of the current transaction that runs longer than timeout.
+     */
+    void setStatementTimeout(Duration timeout);
+
+    /**
+     * Cancels the statement the current transaction is running, from any thread.
+     */
+    Runnable statementCanceller();
+
+    /**
+     * The select lists a search reads, a fixed few so each stays one cached query plan
+     * per filter combination and order. Columns left out are null in the records.
+     */
+    enum Columns {
+        ALL,
+        // id, firstName and lastName, for list views
+        NAMES
+    }
+
+    /**
+     * Typeahead: contacts whose lower-cased first name, last name, full name or email
+     * falls in [from, to), i.e. starts with from when to is the first string past all
+     * that do; a null to has no upper bound. Ordered by the lowest matching key, then id,
+     * both byte-wise, the same order the in-memory index suggests in.
+     */
+    List<ContactDoc> findByPrefix(String username, String from, String to, int limit);
+
+    /**
+     * Fuzzy search candidates: contacts with a first or last name trigram-similar to the
+     * name, or with the Soundex code of one of its first three words, through the pg_trgm
+     * and soundex indexes, most similar first.
+     */
+    List<ContactDoc> findSimilar(String username, String name, int limit);
+
+    /**
+     * Row count the query planner expects for a contact search, read from EXPLAIN
+     * instead of running count(*). Null filters are left out like in the search itself.
+     */
+    long estimateCount(String username, Filter filter);
+
+    /**
+     * Search filters, all optional. name, email and phone match substrings of the raw
+     * values; the others match the normalized columns and expect normalized input.
+     */
+    record Filter(String name, String email, String phone,
+                  String phoneExact, String phonePrefix, String emailExact, String emailDomain) {
+    }
+}
@@ -0,0 +1,325 @@
+package springbootpnz.restapi.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import jakarta.persistence.TypedQuery;
+import org.hibernate.Session;
+import org.springframework.data.domain.Sort;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Contact search picks its JPQL from tables built once, one query per combination of
+ * present filters and sort order. Every variant is a constant string, so Hibernate
+ * interprets it on first use and then serves it from its query plan cache; building a
+ * Criteria query per call made Hibernate interpret a fresh query tree on every search.
+ * Searches select either every column or only the names, the fields a client asked for
+ * are picked from the records afterwards, so the select list only doubles the variants.
+ */
+public class ContactRepositoryCustomImpl implements ContactRepositoryCustom {
+
+    private static final Pattern ROWS = Pattern.compile("rows=(\\d+)");
+
+    private static final int NAME = 1;
+
+    private static final int EMAIL = 2;
+
+    private static final int PHONE = 4;
+
+    private static final int PHONE_EXACT = 8;
+
+    private static final int PHONE_PREFIX = 16;
+
+    private static final int EMAIL_EXACT = 32;
+
+    private static final int EMAIL_DOMAIN = 64;
+
+    private static final int AFTER = 128;
+
+    // every order has a (username, property, id) index, so pages come off an index scan
+    private static final List<String> SORTABLE = List.of("id", "firstName", "lastName", "email", "createdAt");
+
+    private static final int ORDERS = SORTABLE.size() * 2;
+
+    // every column straight into the record, nothing enters the persistence context
+    private static final String DOC = "SELECT new springbootpnz.restapi.repository.ContactDoc(c.id, c.firstName, c.lastName, c.phone, c.email)";
+
+    // by Columns ordinal
+    private static final String[] SELECTS = {
+            DOC,
+            "SELECT new springbootpnz.restapi.repository.ContactDoc(c.id, c.firstName, c.lastName)"
+    };
+
+    // from, where and order by of each variant, behind the select list
+    private static final String[] SEARCH_QUERIES = new String[AFTER * 2 * ORDERS];
+
+    private static final String[] COUNT_QUERIES = new String[AFTER];
+
+    static {
+        for (int filters = 0; filters < AFTER * 2; filters++) {
+            String where = where(filters, false);
+            // keyset paging only seeks in id order
+            int orders = (filters & AFTER) == 0 ? ORDERS : 1;
+            for (int order = 0; order < orders; order++) {
+                SEARCH_QUERIES[filters * ORDERS + order] = " FROM Contact c" + where + orderBy(order);
+            }
+            if ((filters & AFTER) == 0) {
+                COUNT_QUERIES[filters] = "SELECT count(c) FROM Contact c" + where;
+            }
+        }
+    }
+
+    // typeahead keys, each matching a (username, lower(...) COLLATE "C") index so every branch is a range scan
+    private static final List<String> PREFIX_KEYS = List.of(
+            "lower(first_name) COLLATE \"C\"",
+            "lower(last_name) COLLATE \"C\"",
+            "lower(first_name || ' ' || last_name) COLLATE \"C\"",
+            "lower(email) COLLATE \"C\"");
+
+    private static final String PREFIX_QUERY = prefixQuery(true);
+
+    private static final String OPEN_PREFIX_QUERY = prefixQuery(false);
+
+    // words of a fuzzy term compared by Soundex code, the rest only match by trigrams
+    private static final int SOUNDEX_WORDS = 3;
+
+    // a fixed array of the words' codes plans like a constant list, unlike one split in SQL; NULLIF drops words without letters
+    private static final String WORD_CODES = "ARRAY[" + IntStream.range(0, SOUNDEX_WORDS)
+            .mapToObj(i -> "NULLIF(soundex(:word" + i + "), '')")
+            .collect(Collectors.joining(", ")) + "]";
+
+    private static final String SIMILAR_QUERY = "SELECT id, first_name, last_name, phone, email FROM contacts WHERE username = :username"
+            + " AND (first_name % :name OR last_name % :name"
+            + " OR soundex(first_name) = ANY(" + WORD_CODES + ") OR soundex(last_name) = ANY(" + WORD_CODES + "))"
+            + " ORDER BY greatest(similarity(first_name, :name), similarity(last_name, :name)) DESC LIMIT :limit";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<ContactDoc> searchDocs(String username, Filter filter, Columns columns, Sort sort, String afterId, long offset, int limit) {
+        TypedQuery<ContactDoc> query = entityManager.createQuery(SELECTS[columns.ordinal()] + searchQuery(filter, sort, afterId), ContactDoc.class);
+        bind(query, username, filter, afterId);
+        return query
+                .setFirstResult(Math.toIntExact(offset))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public Optional<ContactDoc> findDoc(String username, String id) {
+        return entityManager.createQuery(DOC + " FROM Contact c WHERE c.user.username = :username AND c.id = :id", ContactDoc.class)
+                .setParameter("username", username)
+                .setParameter("id", id)
+                .getResultStream()
+                .findFirst();
+    }
+
+    @Override
+    public long searchCount(String username, Filter filter) {
+        TypedQuery<Long> query = entityManager.createQuery(COUNT_QUERIES[filters(filter)], Long.class);
+        bind(query, username, filter);
+        return query.getSingleResult();
+    }
+
+    @Override
+    public void setStatementTimeout(Duration timeout) {
+        // set_config(..., true) is SET LOCAL, reset when the transaction ends
+        entityManager.createNativeQuery("SELECT set_config('statement_timeout', :timeout, true)")
+                .setParameter("timeout", timeout.toMillis() + "ms")
+                .getSingleResult();
+    }
+
+    @Override
+    public Runnable statementCanceller() {
+        return entityManager.unwrap(Session.class)::cancelQuery;
+    }
+
+    @Override
+    public List<ContactDoc> findByPrefix(String username, String from, String to, int limit) {
+        Query query = entityManager.createNativeQuery(Objects.isNull(to) ? OPEN_PREFIX_QUERY : PREFIX_QUERY)
+                .setParameter("username", username)
+                .setParameter("from", from)
+                .setParameter("limit", limit);
+        if (Objects.nonNull(to)) {
+            query.setParameter("to", to);
+        }
+        return docs(query);
+    }
+
+    @Override
+    public List<ContactDoc> findSimilar(String username, String name, int limit) {
+        Query query = entityManager.createNativeQuery(SIMILAR_QUERY)
+                .setParameter("username", username)
+                .setParameter("name", name)
+                .setParameter("limit", limit);
+        // split like FuzzyScorer does, unused words have no code
+        String[] words = name.trim().split("\\s+");
+        for (int i = 0; i < SOUNDEX_WORDS; i++) {
+            query.setParameter("word" + i, i < words.length ? words[i] : "");
+        }
+        return docs(query);
+    }
+
+    @Override
+    public long estimateCount(String username, Filter filter) {
+        Query query = entityManager.createNativeQuery("EXPLAIN SELECT 1 FROM contacts" + where(filters(filter), true));
+        bind(query, username, filter);
+
+        // the first line of the plan is the top node, its rows= is the estimate for the whole query
+        List<?> plan = query.getResultList();
+        Matcher matcher = ROWS.matcher(String.valueOf(plan.get(0)));
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0L;
+    }
+
+    /**
+     * Range predicates, which unlike LIKE also use the indexes in generic plans of the
+     * prepared statement. The order key is the lowest key that matched.
+     */
+    private static String prefixQuery(boolean bounded) {
+        List<String> matches = PREFIX_KEYS.stream()
+                .map(key -> key + " >= :from" + (bounded ? " AND " + key + " < :to" : ""))
+                .toList();
+        StringBuilder query = new StringBuilder("SELECT id, first_name, last_name, phone, email FROM contacts WHERE username = :username AND (");
+        for (int i = 0; i < matches.size(); i++) {
+            query.append(i == 0 ? "(" : " OR (").append(matches.get(i)).append(")");
+        }
+        query.append(") ORDER BY LEAST(");
+        for (int i = 0; i < matches.size(); i++) {
+            query.append(i == 0 ? "" : ", ").append("CASE WHEN ").append(matches.get(i)).append(" THEN ").append(PREFIX_KEYS.get(i)).append(" END");
+        }
+        return query.append("), id COLLATE \"C\" LIMIT :limit").toString();
+    }
+
+    private static String searchQuery(Filter filter, Sort sort, String afterId) {
+        int filters = filters(filter) | (Objects.nonNull(afterId) ? AFTER : 0);
+        int order = order(sort);
+        if (Objects.nonNull(afterId) && order != 0) {
+            throw new IllegalArgumentException("Keyset paging is only supported in id order");
+        }
+        return SEARCH_QUERIES[filters * ORDERS + order];
+    }
+
+    private static int filters(Filter filter) {
+        return (Objects.nonNull(filter.name()) ? NAME : 0)
+                | (Objects.nonNull(filter.email()) ? EMAIL : 0)
+                | (Objects.nonNull(filter.phone()) ? PHONE : 0)
+                | (Objects.nonNull(filter.phoneExact()) ? PHONE_EXACT : 0)
+                | (Objects.nonNull(filter.phonePrefix()) ? PHONE_PREFIX : 0)
+                | (Objects.nonNull(filter.emailExact()) ? EMAIL_EXACT : 0)
+                | (Objects.nonNull(filter.emailDomain()) ? EMAIL_DOMAIN : 0);
+    }
+
+    /**
+     * The JPQL or, for EXPLAIN, the SQL where clause with the same parameter names.
+     */
+    private static String where(int filters, boolean sql) {
+        String alias = sql ? "" : "c.";
+        StringBuilder where = new StringBuilder(sql ? " WHERE username = :username" : " WHERE c.user.username = :username");
+        if ((filters & NAME) != 0) {
+            where.append(sql
+                    ? " AND (first_name LIKE :name ESCAPE '\\' OR last_name LIKE :name ESCAPE '\\')"
+                    : " AND (c.firstName LIKE :name ESCAPE '\\' OR c.lastName LIKE :name ESCAPE '\\')");
+        }
+        if ((filters & PHONE) != 0) {
+            where.append(" AND ").append(alias).append("phone LIKE :phone ESCAPE '\\'");
+        }
+        if ((filters & EMAIL) != 0) {
+            where.append(" AND ").append(alias).append("email LIKE :email ESCAPE '\\'");
+        }
+        if ((filters & PHONE_EXACT) != 0) {
+            where.append(" AND ").append(alias).append(sql ? "phone_normalized" : "phoneNormalized").append(" = :phoneExact");
+        }
+        if ((filters & PHONE_PREFIX) != 0) {
+            where.append(" AND ").append(alias).append(sql ? "phone_normalized" : "phoneNormalized").append(" LIKE :phonePrefix");
+        }
+        if ((filters & EMAIL_EXACT) != 0) {
+            where.append(" AND ").append(alias).append(sql ? "email_normalized" : "emailNormalized").append(" = :emailExact");
+        }
+        if ((filters & EMAIL_DOMAIN) != 0) {
+            where.append(" AND ").append(alias).append(sql ? "email_domain" : "emailDomain").append(" = :emailDomain");
+        }
+        if ((filters & AFTER) != 0) {
+            where.append(" AND ").append(alias).append("id > :afterId");
+        }
+        return where.toString();
+    }
+
+    /**
+     * Position in SORTABLE times two, plus one when descending.
+     */
+    private static int order(Sort sort) {
+        if (sort == null || sort.isUnsorted()) {
+            return 0;
+        }
+        List<Sort.Order> orders = sort.toList();
+        int property = SORTABLE.indexOf(orders.get(0).getProperty());
+        if (orders.size() > 1 || property < 0) {
+            throw new IllegalArgumentException("Unsupported contact sort " + sort);
+        }
+        return property * 2 + (orders.get(0).isDescending() ? 1 : 0);
+    }
+
+    private static String orderBy(int order) {
+        String property = SORTABLE.get(order / 2);
+        String direction = order % 2 == 0 ? "" : " DESC";
+        return property.equals("id")
+                ? " ORDER BY c.id" + direction
+                : " ORDER BY c." + property + direction + ", c.id" + direction;
+    }
+
+    // rows of id, first_name, last_name, phone, email
+    private static List<ContactDoc> docs(Query query) {
+        List<?> rows = query.getResultList();
+        return rows.stream().map(row -> {
+            Object[] columns = (Object[]) row;
+            return new ContactDoc((String) columns[0], (String) columns[1], (String) columns[2], (String) columns[3], (String) columns[4]);
+        }).toList();
+    }
+
+    private static void bind(Query query, String username, Filter filter, String afterId) {
+        bind(query, username, filter);
+        if (Objects.nonNull(afterId)) {
+            query.setParameter("afterId", afterId);
+        }
+    }
+
+    private static void bind(Query query, String username, Filter filter) {
+        query.setParameter("username", username);
+        if (Objects.nonNull(filter.name())) {
+            query.setParameter("name", contains(filter.name()));
+        }
+        if (Objects.nonNull(filter.phone())) {
+            query.setParameter("phone", contains(filter.phone()));
+        }
+        if (Objects.nonNull(filter.email())) {
+            query.setParameter("email", contains(filter.email()));
+        }
+        if (Objects.nonNull(filter.phoneExact())) {
+            query.setParameter("phoneExact", filter.phoneExact());
+        }
+        if (Objects.nonNull(filter.phonePrefix())) {
+            // normalized phones are "+" and digits only, nothing to escape
+            query.setParameter("phonePrefix", filter.phonePrefix() + "%");
+        }
+        if (Objects.nonNull(filter.emailExact())) {
+            query.setParameter("emailExact", filter.emailExact());
+        }
+        if (Objects.nonNull(filter.emailDomain())) {
+            query.setParameter("emailDomain", filter.emailDomain());
+        }
+    }
+
+    // the term as a literal substring, like the in-memory index matches it
+    private static String contains(String term) {
+        return "%" + term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+}
@@ -0,0 +1,22 @@
+package springbootpnz.restapi.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import springbootpnz.restapi.entity.RevokedToken;
+
+import java.util.List;
+
+@Repository
+public interface RevokedTokenRepository extends JpaRepository<RevokedToken, String> {
+
+    List<RevokedToken> findAllByRevokedAtGreaterThanAndExpiredAtGreaterThan(Long revokedAt, Long expiredAt);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM revoked_tokens WHERE token_hash IN (SELECT token_hash FROM revoked_tokens WHERE expired_at < :now LIMIT :limit)", nativeQuery = true)
+    int deleteExpired(@Param("now") Long now, @Param("limit") int limit);
+}
@@ -0,0 +1,22 @@
+package springbootpnz.restapi.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import springbootpnz.restapi.entity.RevokedUser;
+
+import java.util.List;
+
+@Repository
+public interface RevokedUserRepository extends JpaRepository<RevokedUser, String> {
+
+    List<RevokedUser> findAllByNotBeforeGreaterThanAndExpiredAtGreaterThan(Long notBefore, Long expiredAt);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM revoked_users WHERE username IN (SELECT username FROM revoked_users WHERE expired_at < :now LIMIT :limit)", nativeQuery = true)
+    int deleteExpired(@Param("now") Long now, @Param("limit") int limit);
+}
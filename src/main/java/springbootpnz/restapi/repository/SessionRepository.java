@@ -0,0 +1,31 @@
+package springbootpnz.restapi.repository;
+
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import springbootpnz.restapi.entity.Session;
+import springbootpnz.restapi.entity.User;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface SessionRepository extends JpaRepository<Session, String> {
+
+    List<Session> findAllByUser(User user);
+
+    List<Session> findAllByUserOrderByCreatedAtDesc(User user);
+
+    @Transactional
+    @Modifying
+    @Query("update Session s set s.expiredAt = :expiredAt where s.tokenHash in :tokenHashes and s.expiredAt < :expiredAt")
+    int extendAll(@Param("tokenHashes") Collection<String> tokenHashes, @Param("expiredAt") Long expiredAt);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM sessions WHERE token_hash IN (SELECT token_hash FROM sessions WHERE expired_at < :now LIMIT :limit)", nativeQuery = true)
+    int deleteExpired(@Param("now") Long now, @Param("limit") int limit);
+}
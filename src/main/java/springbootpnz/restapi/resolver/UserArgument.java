@@ -10,18 +10,35 @@ import org.springframework.web.context.request.NativeWebRequest;
 import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.method.support.ModelAndViewContainer;
 import org.springframework.web.server.ResponseStatusException;
+import springbootpnz.restapi.entity.Session;
 import springbootpnz.restapi.entity.User;
-import springbootpnz.restapi.repository.UserRepository;
+import springbootpnz.restapi.repository.SessionRepository;
+import springbootpnz.restapi.security.SessionExtender;
+import springbootpnz.restapi.security.SignedTokens;
+import springbootpnz.restapi.security.TokenCache;
+import springbootpnz.restapi.security.TokenHash;
+
+import java.util.Objects;
 
 @Component
 public class UserArgument implements HandlerMethodArgumentResolver {
 
     @Autowired
-    private UserRepository userRepository;
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private TokenCache tokenCache;
+
+    @Autowired
+    private SignedTokens signedTokens;
+
+    @Autowired
+    private SessionExtender sessionExtender;
 
     @Override
     public boolean supportsParameter(MethodParameter parameter) {
-        return User.class.isAssignableFrom(parameter.getParameterType());
+        return User.class.isAssignableFrom(parameter.getParameterType())
+                || Session.class.isAssignableFrom(parameter.getParameterType());
     }
 
     @Override
@@ -32,12 +49,23 @@ public class UserArgument implements HandlerMethodArgumentResolver {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
         }
 
-        User user = userRepository.findFirstByToken(token)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized"));
+        Session session = signedTokens.isEnabled()
+                ? signedTokens.verify(token)
+                : tokenCache.get(TokenHash.hash(token), key -> sessionRepository.findById(key).orElse(null));
+        if (Objects.isNull(session)) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
+        }
 
-        if (user.getTokenExpiredAt() < System.currentTimeMillis()) {
+        if (session.getExpiredAt() < System.currentTimeMillis()) {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized");
         }
-        return user;
+        if (!signedTokens.isEnabled()) {
+            sessionExtender.touch(session);
+        }
+
+        if (Session.class.isAssignableFrom(parameter.getParameterType())) {
+            return session;
+        }
+        return session.getUser();
     }
 }
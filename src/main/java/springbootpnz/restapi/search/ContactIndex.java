@@ -0,0 +1,461 @@
+package springbootpnz.restapi.search;
+
+import springbootpnz.restapi.repository.ContactDoc;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory trigram index over one user's contacts. Every name, phone and email value
+ * is split into overlapping three character grams with a posting list of the contacts
+ * containing each gram, so a substring filter becomes an intersection of posting lists
+ * followed by a contains check on the few candidates left. Matching is the same as the
+ * LIKE '%term%' filters of the database search: case sensitive substring. Grams are
+ * lower-cased, which only widens the candidates that the contains check then narrows.
+ * <p>
+ * Updates append a new document and tombstone the old one, posting lists therefore stay
+ * sorted by document number; the index compacts itself once half of it is tombstones.
+ * Names and emails are also kept in a {@link PrefixIndex} for typeahead suggestions,
+ * and name words by Soundex code for fuzzy search. Names are padded like pg_trgm does
+ * so that word boundaries become grams as well, which short misspelled names need.
+ */
+public class ContactIndex {
+
+    private static final int MAX_CANDIDATES = 512;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<ContactDoc> docs = new ArrayList<>();
+
+    private final Map<String, Integer> docById = new HashMap<>();
+
+    private final Map<Long, Postings> names = new HashMap<>();
+
+    private final Map<Long, Postings> phones = new HashMap<>();
+
+    private final Map<Long, Postings> emails = new HashMap<>();
+
+    private final Map<String, Postings> sounds = new HashMap<>();
+
+    private final PrefixIndex prefixes = new PrefixIndex();
+
+    /**
+     * Fuzzy search hit counters, lent to one search at a time and zeroed again through
+     * its touched list, so a search costs the postings it reads rather than two fresh
+     * arrays the size of the index.
+     */
+    private final AtomicReference<Counters> counters = new AtomicReference<>();
+
+    private int deleted;
+
+    private long postingCount;
+
+    private long textChars;
+
+    public ContactIndex(Collection<ContactDoc> docs) {
+        docs.forEach(this::add);
+        prefixes.merge(this::isLive);
+    }
+
+    public void put(ContactDoc doc) {
+        lock.writeLock().lock();
+        try {
+            removeDoc(doc.id());
+            add(doc);
+            if (!compactIfSparse() && prefixes.isFull()) {
+                prefixes.merge(this::isLive);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String contactId) {
+        lock.writeLock().lock();
+        try {
+            removeDoc(contactId);
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * One page of the contacts matching every non-null filter, ordered by id, plus the
+     * total number of matches. The name filter matches either the first or the last name.
+     */
+    public Result search(String name, String email, String phone, long offset, int limit) {
+        lock.readLock().lock();
+        try {
+            int[] candidates = null;
+            if (Objects.nonNull(name)) {
+                candidates = intersect(candidates, candidates(names, name));
+            }
+            if (Objects.nonNull(phone)) {
+                candidates = intersect(candidates, candidates(phones, phone));
+            }
+            if (Objects.nonNull(email)) {
+                candidates = intersect(candidates, candidates(emails, email));
+            }
+
+            // keep only the first offset + limit matches by id instead of sorting them all
+            int keep = (int) Math.min(Integer.MAX_VALUE - 1, offset + limit);
+            PriorityQueue<ContactDoc> top = new PriorityQueue<>(Comparator.comparing(ContactDoc::id).reversed());
+            int total = 0;
+            int count = candidates == null ? docs.size() : candidates.length;
+            for (int i = 0; i < count; i++) {
+                ContactDoc doc = docs.get(candidates == null ? i : candidates[i]);
+                if (doc == null || !matches(doc, name, email, phone)) {
+                    continue;
+                }
+                total++;
+                if (top.size() < keep) {
+                    top.add(doc);
+                } else if (keep > 0 && doc.id().compareTo(top.peek().id()) < 0) {
+                    top.poll();
+                    top.add(doc);
+                }
+            }
+
+            List<ContactDoc> page = new ArrayList<>(top);
+            page.sort(Comparator.comparing(ContactDoc::id));
+            return new Result(page.subList((int) Math.min(offset, page.size()), page.size()), total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Up to limit contacts with a first name, last name, full name or email starting with
+     * the prefix, ignoring case, ordered by the matching value.
+     */
+    public List<ContactDoc> suggest(String prefix, int limit) {
+        lock.readLock().lock();
+        try {
+            return prefixes.lookup(prefix, limit, this::isLive, number -> docs.get(number).id()).stream().map(docs::get).toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Up to limit contacts whose name is close to the term, best first, scored by
+     * {@link FuzzyScorer} and at least minScore. Candidates are the contacts sharing the
+     * most padded name grams with the term plus, of those with a word that sounds alike,
+     * the ones sharing the most grams.
+     */
+    public List<Match> fuzzy(String term, int limit, double minScore) {
+        String query = term.trim();
+        lock.readLock().lock();
+        try {
+            Counters scratch = counters.getAndSet(null);
+            if (scratch == null || scratch.hits().length < docs.size()) {
+                // headroom so that the writes between searches don't reallocate them every time
+                int capacity = docs.size() + docs.size() / 4 + 16;
+                scratch = new Counters(new int[capacity], new int[capacity]);
+            }
+            int[] hits = scratch.hits();
+            int[] touched = scratch.touched();
+            int touchedSize = 0;
+            Set<Long> grams = new HashSet<>();
+            String padded = pad(query);
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                grams.add(gram(padded, i));
+            }
+            for (Long gram : grams) {
+                Postings list = names.get(gram);
+                if (list == null) {
+                    continue;
+                }
+                for (int i = 0; i < list.size; i++) {
+                    int number = list.numbers[i];
+                    if (hits[number]++ == 0) {
+                        touched[touchedSize++] = number;
+                    }
+                }
+            }
+
+            Set<Integer> candidates = new HashSet<>();
+            addMostHits(touched, touchedSize, hits, grams.size(), candidates);
+            // a common code sounds like far more contacts than are worth scoring
+            for (String word : query.split("\\s+")) {
+                String code = FuzzyScorer.soundex(word);
+                Postings list = code == null ? null : sounds.get(code);
+                if (list != null) {
+                    addMostHits(list.numbers, list.size, hits, grams.size(), candidates);
+                }
+            }
+            for (int i = 0; i < touchedSize; i++) {
+                hits[touched[i]] = 0;
+            }
+            counters.set(scratch);
+
+            PriorityQueue<Match> top = new PriorityQueue<>(Comparator.comparingDouble(Match::score));
+            for (int number : candidates) {
+                ContactDoc doc = docs.get(number);
+                if (doc == null) {
+                    continue;
+                }
+                double score = FuzzyScorer.score(query, doc, minScore);
+                if (score >= minScore) {
+                    top.add(new Match(doc, score));
+                    if (top.size() > limit) {
+                        top.poll();
+                    }
+                }
+            }
+            List<Match> matches = new ArrayList<>(top);
+            matches.sort(Comparator.comparingDouble(Match::score).reversed().thenComparing(match -> match.doc().id()));
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds up to MAX_CANDIDATES more of the numbers with the most hits, found by bucketing
+     * on the hit count instead of sorting, lower numbers first among equal counts.
+     */
+    private static void addMostHits(int[] numbers, int size, int[] hits, int maxHits, Set<Integer> candidates) {
+        int[] byHits = new int[maxHits + 1];
+        for (int i = 0; i < size; i++) {
+            byHits[Math.min(hits[numbers[i]], maxHits)]++;
+        }
+        int threshold = maxHits;
+        for (int taken = byHits[threshold]; threshold > 0 && taken < MAX_CANDIDATES; ) {
+            taken += byHits[--threshold];
+        }
+        int added = 0;
+        for (int i = 0; i < size; i++) {
+            if (Math.min(hits[numbers[i]], maxHits) > threshold && candidates.add(numbers[i])) {
+                added++;
+            }
+        }
+        for (int i = 0; i < size && added < MAX_CANDIDATES; i++) {
+            if (Math.min(hits[numbers[i]], maxHits) == threshold && candidates.add(numbers[i])) {
+                added++;
+            }
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rough heap footprint in bytes, used to keep all indexes within one memory budget.
+     */
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            Counters scratch = counters.get();
+            return 64L * docs.size() + 2L * textChars + 4L * postingCount
+                    + 48L * (names.size() + phones.size() + emails.size() + sounds.size()) + prefixes.estimatedBytes()
+                    + (scratch == null ? 0 : 8L * scratch.hits().length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(ContactDoc doc) {
+        int number = docs.size();
+        docs.add(doc);
+        docById.put(doc.id(), number);
+        textChars += length(doc.id()) + length(doc.firstName()) + length(doc.lastName()) + length(doc.phone()) + length(doc.email());
+        index(names, number, pad(doc.firstName()));
+        index(names, number, pad(doc.lastName()));
+        indexSounds(number, doc.firstName());
+        indexSounds(number, doc.lastName());
+        index(phones, number, doc.phone());
+        index(emails, number, doc.email());
+        prefixes.add(number, doc.firstName(), doc.lastName(), doc.fullName(), doc.email());
+    }
+
+    private boolean isLive(int number) {
+        return docs.get(number) != null;
+    }
+
+    private void removeDoc(String contactId) {
+        Integer number = docById.remove(contactId);
+        if (number != null) {
+            docs.set(number, null);
+            deleted++;
+        }
+    }
+
+    // once tombstones outnumber live documents
+    private boolean compactIfSparse() {
+        if (deleted <= docById.size()) {
+            return false;
+        }
+        compact();
+        return true;
+    }
+
+    private void compact() {
+        List<ContactDoc> live = docs.stream().filter(Objects::nonNull).toList();
+        docs.clear();
+        docById.clear();
+        names.clear();
+        phones.clear();
+        emails.clear();
+        sounds.clear();
+        prefixes.clear();
+        deleted = 0;
+        postingCount = 0;
+        textChars = 0;
+        live.forEach(this::add);
+        prefixes.merge(this::isLive);
+    }
+
+    private void index(Map<Long, Postings> postings, int number, String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i + 3 <= value.length(); i++) {
+            if (postings.computeIfAbsent(gram(value, i), key -> new Postings()).add(number)) {
+                postingCount++;
+            }
+        }
+    }
+
+    private void indexSounds(int number, String value) {
+        if (value == null) {
+            return;
+        }
+        for (String word : value.split("\\s+")) {
+            String code = FuzzyScorer.soundex(word);
+            if (code != null && sounds.computeIfAbsent(code, key -> new Postings()).add(number)) {
+                postingCount++;
+            }
+        }
+    }
+
+    private static String pad(String value) {
+        return value == null ? null : "  " + value + " ";
+    }
+
+    /**
+     * Documents containing every gram of the term, or every document when the term is
+     * too short to have a gram.
+     */
+    private int[] candidates(Map<Long, Postings> postings, String term) {
+        if (term.length() < 3) {
+            int[] all = new int[docs.size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        List<Postings> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            Postings list = postings.get(gram(term, i));
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(Postings::size));
+
+        // start from the rarest gram, the candidate set only shrinks from there
+        int[] result = lists.get(0).toArray();
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i).numbers, lists.get(i).size);
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] left, int[] right) {
+        return left == null ? right : intersect(left, right, right.length);
+    }
+
+    /**
+     * Sorted intersection that binary searches the longer list from the last match,
+     * so a short list against a very common gram costs O(short * log long).
+     */
+    private static int[] intersect(int[] left, int[] right, int rightSize) {
+        int[] result = new int[Math.min(left.length, rightSize)];
+        int size = 0;
+        int from = 0;
+        for (int number : left) {
+            int found = Arrays.binarySearch(right, from, rightSize, number);
+            if (found >= 0) {
+                result[size++] = number;
+                from = found + 1;
+            } else {
+                from = -found - 1;
+            }
+            if (from >= rightSize) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static boolean matches(ContactDoc doc, String name, String email, String phone) {
+        return (name == null || contains(doc.firstName(), name) || contains(doc.lastName(), name))
+                && (phone == null || contains(doc.phone(), phone))
+                && (email == null || contains(doc.email(), email));
+    }
+
+    private static boolean contains(String value, String term) {
+        return value != null && value.contains(term);
+    }
+
+    private static long gram(String value, int offset) {
+        return ((long) Character.toLowerCase(value.charAt(offset)) << 32)
+                | ((long) Character.toLowerCase(value.charAt(offset + 1)) << 16)
+                | Character.toLowerCase(value.charAt(offset + 2));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * Growable sorted int array. Numbers are only ever appended in increasing order, so
+     * a repeated gram within one document is detected by looking at the last entry.
+     */
+    private static class Postings {
+
+        private int[] numbers = new int[4];
+
+        private int size;
+
+        boolean add(int number) {
+            if (size > 0 && numbers[size - 1] == number) {
+                return false;
+            }
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+            }
+            numbers[size++] = number;
+            return true;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(numbers, size);
+        }
+    }
+
+    private record Counters(int[] hits, int[] touched) {
+    }
+
+    public record Result(List<ContactDoc> page, int total) {
+    }
+
+    public record Match(ContactDoc doc, double score) {
+    }
+}
@@ -0,0 +1,100 @@
+package springbootpnz.restapi.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+import springbootpnz.restapi.entity.Contact;
+import springbootpnz.restapi.repository.ContactDoc;
+import springbootpnz.restapi.repository.ContactRepository;
+
+import java.time.Duration;
+
+/**
+ * Per-user {@link ContactIndex}es, built on a user's first search and kept up to date by
+ * contact writes once they commit. All indexes share one memory budget and the least
+ * recently used ones are dropped when it is exceeded; an evicted user just goes back to
+ * the database until the next search rebuilds it.
+ * <p>
+ * Writes are only seen by the node that made them, so indexes also expire after a ttl;
+ * keep that short when several nodes serve the same users.
+ */
+@Component
+public class ContactIndexes {
+
+    private final boolean enabled;
+
+    private final Cache<String, ContactIndex> indexes;
+
+    private final ContactRepository contactRepository;
+
+    public ContactIndexes(@Value("${restapi.contacts.index.enabled:false}") boolean enabled,
+                          @Value("${restapi.contacts.index.memory-budget:256MB}") DataSize memoryBudget,
+                          @Value("${restapi.contacts.index.ttl:10m}") Duration ttl,
+                          ContactRepository contactRepository,
+                          MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.contactRepository = contactRepository;
+        this.indexes = Caffeine.newBuilder()
+                .maximumWeight(memoryBudget.toBytes())
+                .weigher((String username, ContactIndex index) -> (int) Math.min(Integer.MAX_VALUE, index.estimatedBytes()))
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, indexes, "contacts.index");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The user's index, loading all of their contacts into a new one on first use.
+     */
+    public ContactIndex get(String username) {
+        return indexes.get(username, key -> new ContactIndex(contactRepository.findAllByUserUsername(key)));
+    }
+
+    public void invalidateAll() {
+        indexes.invalidateAll();
+    }
+
+    public void putAfterCommit(String username, Contact contact) {
+        if (!enabled) {
+            return;
+        }
+        ContactDoc doc = ContactDoc.of(contact);
+        afterCommit(() -> indexes.asMap().computeIfPresent(username, (key, index) -> {
+            index.put(doc);
+            return index;
+        }));
+    }
+
+    public void removeAfterCommit(String username, String contactId) {
+        if (!enabled) {
+            return;
+        }
+        afterCommit(() -> indexes.asMap().computeIfPresent(username, (key, index) -> {
+            index.remove(contactId);
+            return index;
+        }));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
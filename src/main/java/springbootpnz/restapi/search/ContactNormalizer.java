@@ -0,0 +1,71 @@
+package springbootpnz.restapi.search;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Canonical forms of phone numbers and emails, stored next to the raw values so lookups
+ * can use plain B-tree indexes. Phones become E.164-like "+" and digits: a leading "00"
+ * is an international prefix and a single leading "0" a national trunk prefix that is
+ * replaced with the default country code, so "+62 812-3456" and "0812 3456" are equal.
+ */
+@Component
+public class ContactNormalizer {
+
+    private final String defaultCountryCode;
+
+    public ContactNormalizer(@Value("${restapi.contacts.default-country-code:62}") String defaultCountryCode) {
+        this.defaultCountryCode = defaultCountryCode;
+    }
+
+    /**
+     * Null when there are no digits in the phone.
+     */
+    public String phone(String phone) {
+        if (phone == null) {
+            return null;
+        }
+        StringBuilder digits = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        if (digits.isEmpty()) {
+            return null;
+        }
+
+        if (phone.strip().startsWith("+")) {
+            return "+" + digits;
+        }
+        if (digits.length() > 2 && digits.charAt(0) == '0' && digits.charAt(1) == '0') {
+            return "+" + digits.substring(2);
+        }
+        if (digits.charAt(0) == '0') {
+            return "+" + defaultCountryCode + digits.substring(1);
+        }
+        return "+" + digits;
+    }
+
+    public String email(String email) {
+        if (email == null || email.isBlank()) {
+            return null;
+        }
+        return email.strip().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Lower-cased part after the last "@", null when there is none.
+     */
+    public String emailDomain(String email) {
+        String normalized = email(email);
+        if (normalized == null) {
+            return null;
+        }
+        int at = normalized.lastIndexOf('@');
+        return at >= 0 && at < normalized.length() - 1 ? normalized.substring(at + 1) : null;
+    }
+}
@@ -0,0 +1,146 @@
+package springbootpnz.restapi.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+import springbootpnz.restapi.model.AddressResponse;
+import springbootpnz.restapi.model.ContactResponse;
+import springbootpnz.restapi.model.TotalType;
+import springbootpnz.restapi.repository.ContactRepositoryCustom;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Contact search pages keyed by user, the user's generation and the normalized search.
+ * Any write to a user's contacts or addresses moves the user to a new generation, so
+ * their cached pages are never read again and age out under the memory budget; there is
+ * no scan for stale entries and users never contend with each other.
+ * <p>
+ * Generations come from one sequence, so a user whose generation was evicted starts
+ * again at a number no cached page can carry. Like the contact index, writes are only
+ * seen by the node that made them, so it is off unless enabled, and kept to a short ttl
+ * when it is.
+ */
+@Component
+public class ContactSearchCache {
+
+    private final boolean enabled;
+
+    private final Cache<Key, Slice<ContactResponse>> pages;
+
+    private final Cache<String, Long> generations;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public ContactSearchCache(@Value("${restapi.contacts.search-cache.enabled:false}") boolean enabled,
+                              @Value("${restapi.contacts.search-cache.memory-budget:64MB}") DataSize memoryBudget,
+                              @Value("${restapi.contacts.search-cache.ttl:1m}") Duration ttl,
+                              MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.pages = Caffeine.newBuilder()
+                .maximumWeight(memoryBudget.toBytes())
+                .weigher((Key key, Slice<ContactResponse> page) -> estimatedBytes(page))
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.generations = Caffeine.newBuilder()
+                .expireAfterAccess(ttl)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, pages, "contacts.search");
+        Gauge.builder("contacts.search.cache.weight", pages, cache -> cache.policy().eviction()
+                        .map(eviction -> eviction.weightedSize().orElse(0L))
+                        .orElse(0L))
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The cached page for this search, or the one loader computes, cached for the
+     * generation the user was in before loading unless it is partial. Pages with
+     * addresses embedded or fewer columns read are cached apart.
+     */
+    public Slice<ContactResponse> get(String username, ContactRepositoryCustom.Filter filter, Pageable pageable, TotalType totalType,
+                                      boolean expandAddresses, ContactRepositoryCustom.Columns columns,
+                                      Supplier<Slice<ContactResponse>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        Key key = new Key(username, generation(username), filter, pageable, totalType, expandAddresses, columns);
+        Slice<ContactResponse> page = pages.getIfPresent(key);
+        if (page == null) {
+            page = loader.get();
+            // a page cut short by the time budget is retried next time
+            if (!(page instanceof PartialSlice)) {
+                pages.put(key, page);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Moves the user to a new generation now and again once the surrounding transaction
+     * commits, so a search racing the write can't cache what it read before the commit.
+     */
+    public void invalidateAfterCommit(String username) {
+        if (!enabled) {
+            return;
+        }
+        invalidate(username);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(username);
+                }
+            });
+        }
+    }
+
+    public void invalidateAll() {
+        generations.invalidateAll();
+        pages.invalidateAll();
+    }
+
+    private void invalidate(String username) {
+        generations.put(username, sequence.incrementAndGet());
+    }
+
+    private long generation(String username) {
+        return generations.get(username, key -> sequence.incrementAndGet());
+    }
+
+    private static int estimatedBytes(Slice<ContactResponse> page) {
+        long bytes = 128;
+        for (ContactResponse contact : page.getContent()) {
+            bytes += 64 + sizeOf(contact.getId()) + sizeOf(contact.getFirstName()) + sizeOf(contact.getLastName())
+                    + sizeOf(contact.getPhone()) + sizeOf(contact.getEmail());
+            if (Objects.nonNull(contact.getAddresses())) {
+                for (AddressResponse address : contact.getAddresses()) {
+                    bytes += 64 + sizeOf(address.getId()) + sizeOf(address.getStreet()) + sizeOf(address.getCity())
+                            + sizeOf(address.getProvince()) + sizeOf(address.getCountry()) + sizeOf(address.getPostalCode());
+                }
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    private static long sizeOf(String value) {
+        return Objects.isNull(value) ? 0 : 40 + value.length();
+    }
+
+    private record Key(String username, long generation, ContactRepositoryCustom.Filter filter, Pageable pageable, TotalType totalType,
+                       boolean expandAddresses, ContactRepositoryCustom.Columns columns) {
+    }
+}
@@ -0,0 +1,137 @@
+package springbootpnz.restapi.search;
+
+import springbootpnz.restapi.repository.ContactDoc;
+
+import java.util.Locale;
+
+/**
+ * Scores how well a typed name matches a contact: the best edit distance against the
+ * first, last or full name, counting a swap of two neighbouring letters as one edit and
+ * normalized by the combined length, with a bonus when a word sounds the same by
+ * Soundex. Scores run from 0 to 1, and 1 is an exact match ignoring case.
+ */
+public final class FuzzyScorer {
+
+    private static final double PHONETIC_BONUS = 0.15;
+
+    private FuzzyScorer() {
+    }
+
+    public static double score(String term, ContactDoc doc, double minScore) {
+        String query = term.trim().toLowerCase(Locale.ROOT);
+        double best = 0;
+        for (String value : new String[]{doc.firstName(), doc.lastName(), doc.fullName()}) {
+            if (value == null) {
+                continue;
+            }
+            String candidate = value.toLowerCase(Locale.ROOT);
+            double halfLength = (query.length() + candidate.length()) / 2.0;
+            // anything further than this can't reach minScore, even with the bonus
+            int bound = (int) Math.floor(halfLength * (1 - minScore + PHONETIC_BONUS));
+            int distance = editDistance(query, candidate, bound);
+            if (distance <= bound) {
+                best = Math.max(best, 1.0 - distance / halfLength);
+            }
+        }
+        if (soundsAlike(query, doc)) {
+            best = Math.min(1.0, best + PHONETIC_BONUS);
+        }
+        return best;
+    }
+
+    /**
+     * Levenshtein distance that also counts swapping two adjacent characters as a single
+     * edit (optimal string alignment), or bound + 1 as soon as it is known to be larger
+     * than bound.
+     */
+    public static int editDistance(String left, String right, int bound) {
+        if (Math.abs(left.length() - right.length()) > bound) {
+            return bound + 1;
+        }
+        int[] beforePrevious = new int[right.length() + 1];
+        int[] previous = new int[right.length() + 1];
+        int[] current = new int[right.length() + 1];
+        for (int j = 0; j <= right.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= left.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            char c = left.charAt(i - 1);
+            for (int j = 1; j <= right.length(); j++) {
+                int cost = c == right.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && c == right.charAt(j - 2) && left.charAt(i - 2) == right.charAt(j - 1)) {
+                    current[j] = Math.min(current[j], beforePrevious[j - 2] + 1);
+                }
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > bound) {
+                return bound + 1;
+            }
+            int[] swap = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[right.length()];
+    }
+
+    /**
+     * American Soundex of a single word, or null when it has no letters.
+     */
+    public static String soundex(String word) {
+        char[] code = new char[]{'0', '0', '0', '0'};
+        int size = 0;
+        char last = 0;
+        for (int i = 0; i < word.length() && size < 4; i++) {
+            char c = Character.toUpperCase(word.charAt(i));
+            if (c < 'A' || c > 'Z') {
+                continue;
+            }
+            char digit = digit(c);
+            if (size == 0) {
+                code[size++] = c;
+            } else if (digit != '0' && digit != last) {
+                code[size++] = digit;
+            }
+            // H and W don't separate equal codes, vowels do
+            if (c != 'H' && c != 'W') {
+                last = digit;
+            }
+        }
+        return size == 0 ? null : new String(code);
+    }
+
+    private static boolean soundsAlike(String query, ContactDoc doc) {
+        for (String queryWord : query.split("\\s+")) {
+            String code = soundex(queryWord);
+            if (code == null) {
+                continue;
+            }
+            for (String value : new String[]{doc.firstName(), doc.lastName()}) {
+                if (value == null) {
+                    continue;
+                }
+                for (String word : value.split("\\s+")) {
+                    if (code.equals(soundex(word))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static char digit(char c) {
+        return switch (c) {
+            case 'B', 'F', 'P', 'V' -> '1';
+            case 'C', 'G', 'J', 'K', 'Q', 'S', 'X', 'Z' -> '2';
+            case 'D', 'T' -> '3';
+            case 'L' -> '4';
+            case 'M', 'N' -> '5';
+            case 'R' -> '6';
+            default -> '0';
+        };
+    }
+}
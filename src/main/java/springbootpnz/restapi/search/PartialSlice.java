@@ -0,0 +1,19 @@
+package springbootpnz.restapi.search;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+
+import java.util.List;
+
+/**
+ * A search page cut short by the search time budget: the content is what could be read
+ * in time, possibly nothing, and there is no total.
+ */
+public class PartialSlice<T> extends SliceImpl<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    public PartialSlice(List<T> content, Pageable pageable, boolean hasNext) {
+        super(content, pageable, hasNext);
+    }
+}
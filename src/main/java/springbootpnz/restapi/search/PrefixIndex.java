@@ -0,0 +1,117 @@
+package springbootpnz.restapi.search;
+
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Lower-cased keys in one sorted array with the document number of each key in a
+ * parallel int array, so a prefix lookup is a binary search followed by a short scan.
+ * Keys added since the last merge wait in a small pending run that lookups scan as
+ * well; once it is full it is sorted and merged into the arrays in one linear pass,
+ * dropping keys of documents that were removed in the meantime.
+ */
+class PrefixIndex {
+
+    private static final int PENDING_LIMIT = 256;
+
+    private String[] keys = new String[0];
+
+    private int[] numbers = new int[0];
+
+    private final List<Key> pending = new ArrayList<>();
+
+    private long keyChars;
+
+    void add(int number, String... values) {
+        for (String value : values) {
+            if (value != null && !value.isEmpty()) {
+                String key = value.toLowerCase(Locale.ROOT);
+                pending.add(new Key(key, number));
+                keyChars += key.length();
+            }
+        }
+    }
+
+    boolean isFull() {
+        return pending.size() >= PENDING_LIMIT;
+    }
+
+    void merge(IntPredicate live) {
+        pending.sort(Comparator.comparing(Key::key));
+        String[] mergedKeys = new String[keys.length + pending.size()];
+        int[] mergedNumbers = new int[mergedKeys.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        keyChars = 0;
+        while (i < keys.length || j < pending.size()) {
+            boolean fromKeys = j >= pending.size() || (i < keys.length && keys[i].compareTo(pending.get(j).key()) <= 0);
+            String key = fromKeys ? keys[i] : pending.get(j).key();
+            int number = fromKeys ? numbers[i++] : pending.get(j++).number();
+            if (live.test(number)) {
+                mergedKeys[size] = key;
+                mergedNumbers[size++] = number;
+                keyChars += key.length();
+            }
+        }
+        keys = Arrays.copyOf(mergedKeys, size);
+        numbers = Arrays.copyOf(mergedNumbers, size);
+        pending.clear();
+    }
+
+    void clear() {
+        keys = new String[0];
+        numbers = new int[0];
+        pending.clear();
+        keyChars = 0;
+    }
+
+    /**
+     * Up to limit distinct live documents with a key starting with the prefix, ordered
+     * by their lowest matching key, then by id.
+     */
+    List<Integer> lookup(String prefix, int limit, IntPredicate live, IntFunction<String> ids) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        List<Key> matches = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+
+        // past limit documents only those tied on the last key can still make it in by id
+        String last = null;
+        int from = Arrays.binarySearch(keys, key);
+        for (int i = from >= 0 ? from : -from - 1; i < keys.length && keys[i].startsWith(key); i++) {
+            if (seen.size() >= limit && !keys[i].equals(last)) {
+                break;
+            }
+            if (live.test(numbers[i]) && seen.add(numbers[i])) {
+                matches.add(new Key(keys[i], numbers[i]));
+                last = keys[i];
+            }
+        }
+        for (Key candidate : pending) {
+            if (candidate.key().startsWith(key) && live.test(candidate.number())) {
+                matches.add(candidate);
+            }
+        }
+
+        matches.sort(Comparator.comparing(Key::key).thenComparing(match -> ids.apply(match.number())));
+        seen.clear();
+        List<Integer> result = new ArrayList<>(limit);
+        for (Key match : matches) {
+            if (result.size() == limit) {
+                break;
+            }
+            if (seen.add(match.number())) {
+                result.add(match.number());
+            }
+        }
+        return result;
+    }
+
+    long estimatedBytes() {
+        return 2L * keyChars + 48L * (keys.length + pending.size());
+    }
+
+    private record Key(String key, int number) {
+    }
+}
@@ -0,0 +1,191 @@
+package springbootpnz.restapi.search;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs the count query of an exact-total search on a small pool, on its own pooled
+ * connection, while the request thread reads the page. When the page turns out short
+ * enough to tell the total by itself, the count is cancelled. Each forked
+ * count holds a second connection, so forking is capped by the pool size and skipped
+ * whenever the connection pool is down to its reserve of idle connections; the count
+ * then just runs on the request thread when it is asked for, as before. That keeps
+ * request threads from all waiting on counts that can't get a connection.
+ */
+@Component
+public class SearchCountExecutor {
+
+    private final boolean enabled;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Duration timeout;
+
+    private final int reservedConnections;
+
+    private final HikariDataSource hikari;
+
+    private final Counter forked;
+
+    private final Counter inline;
+
+    private final Counter cancelledCounts;
+
+    public SearchCountExecutor(@Value("${restapi.contacts.parallel-count.enabled:true}") boolean enabled,
+                               @Value("${restapi.contacts.parallel-count.threads:8}") int threads,
+                               @Value("${restapi.contacts.parallel-count.timeout:5s}") Duration timeout,
+                               @Value("${restapi.contacts.parallel-count.reserved-connections:5}") int reservedConnections,
+                               DataSource dataSource,
+                               MeterRegistry meterRegistry) throws SQLException {
+        this.enabled = enabled;
+        this.timeout = timeout;
+        this.reservedConnections = reservedConnections;
+        this.hikari = dataSource.isWrapperFor(HikariDataSource.class) ? dataSource.unwrap(HikariDataSource.class) : null;
+        // no queue: a count that can't start right away is cheaper to run inline than to wait for
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(),
+                new CustomizableThreadFactory("search-count-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.forked = Counter.builder("contacts.search.count").tag("mode", "forked").register(meterRegistry);
+        this.inline = Counter.builder("contacts.search.count").tag("mode", "inline").register(meterRegistry);
+        this.cancelledCounts = Counter.builder("contacts.search.count").tag("mode", "cancelled").register(meterRegistry);
+        ExecutorServiceMetrics.monitor(meterRegistry, executor, "contacts.search.count", Collections.emptyList());
+    }
+
+    /**
+     * Starts count in the background when there is room for it. The result runs count on
+     * the calling thread instead when it could not be forked.
+     */
+    public Pending fork(Count count) {
+        Pending pending = new Pending(count);
+        if (enabled && hasSpareConnections()) {
+            try {
+                pending.future = executor.submit(() -> count.run(pending::cancelWith));
+            } catch (RejectedExecutionException e) {
+                // counted inline once asked for
+            }
+        }
+        return pending;
+    }
+
+    private boolean hasSpareConnections() {
+        if (hikari == null) {
+            return true;
+        }
+        HikariPoolMXBean pool = hikari.getHikariPoolMXBean();
+        if (pool == null) {
+            return false;
+        }
+        int spare = pool.getIdleConnections() + Math.max(0, hikari.getMaximumPoolSize() - pool.getTotalConnections());
+        return pool.getThreadsAwaitingConnection() == 0 && spare > reservedConnections;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A count query that, just before it runs its statement, hands over a way to cancel
+     * that statement from another thread.
+     */
+    @FunctionalInterface
+    public interface Count {
+
+        long run(Consumer<Runnable> canceller);
+    }
+
+    public class Pending implements LongSupplier {
+
+        private final Count count;
+
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        private Future<Long> future;
+
+        private volatile Runnable canceller;
+
+        private Pending(Count count) {
+            this.count = count;
+        }
+
+        /**
+         * The forked count, or the count run here when it couldn't be forked. A forked
+         * count that doesn't finish in time is cancelled rather than run a second time,
+         * which would hold two connections for it just when the database is slow, and
+         * the caller gets a {@link QueryTimeoutException} as if its own statement had
+         * run out of time.
+         */
+        @Override
+        public long getAsLong() {
+            if (future == null) {
+                inline.increment();
+                return count.run(statement -> {
+                });
+            }
+            try {
+                long result = future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+                forked.increment();
+                return result;
+            } catch (TimeoutException e) {
+                cancel();
+                throw new QueryTimeoutException("Search count did not finish within " + timeout);
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        /**
+         * For when the total turned out not to be needed: a forked count that hasn't
+         * reached its statement yet never runs it, and a running statement is cancelled,
+         * freeing its connection.
+         */
+        public void cancel() {
+            if (future == null || future.isDone() || !cancelled.compareAndSet(false, true)) {
+                return;
+            }
+            future.cancel(false);
+            cancelledCounts.increment();
+            Runnable statement = canceller;
+            if (statement != null) {
+                try {
+                    statement.run();
+                } catch (RuntimeException e) {
+                    // the statement finished in the meantime
+                }
+            }
+        }
+
+        // set before cancelled is read, and cancel() sets cancelled before reading this, so one of the two sees the other
+        private void cancelWith(Runnable statement) {
+            canceller = statement;
+            if (cancelled.get()) {
+                throw new CancellationException("Search count no longer needed");
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package springbootpnz.restapi.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+
+/**
+ * Sliding window limit on login attempts per username and per client address, checked
+ * before the password is hashed. Each key gets its own small counter that is only
+ * locked by attempts for the same key, and the number of tracked keys is bounded.
+ */
+@Component
+public class LoginThrottle {
+
+    private final Cache<String, Window> windows;
+
+    private final long windowMillis;
+
+    private final int maxAttemptsPerUser;
+
+    private final int maxAttemptsPerAddress;
+
+    private final Counter throttledUsers;
+
+    private final Counter throttledAddresses;
+
+    public LoginThrottle(@Value("${restapi.auth.login-throttle.window:1m}") Duration window,
+                         @Value("${restapi.auth.login-throttle.max-attempts-per-user:10}") int maxAttemptsPerUser,
+                         @Value("${restapi.auth.login-throttle.max-attempts-per-address:50}") int maxAttemptsPerAddress,
+                         @Value("${restapi.auth.login-throttle.maximum-size:100000}") long maximumSize,
+                         MeterRegistry meterRegistry) {
+        this.windowMillis = window.toMillis();
+        this.maxAttemptsPerUser = maxAttemptsPerUser;
+        this.maxAttemptsPerAddress = maxAttemptsPerAddress;
+        this.windows = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(window.multipliedBy(2))
+                .build();
+        this.throttledUsers = Counter.builder("auth.login.throttled").tag("key", "username").register(meterRegistry);
+        this.throttledAddresses = Counter.builder("auth.login.throttled").tag("key", "address").register(meterRegistry);
+    }
+
+    /**
+     * Records a login attempt, or throws 429 without recording it when either the
+     * username or the client address is over its limit.
+     */
+    public void acquire(String username, String address) {
+        long now = System.currentTimeMillis();
+        Window user = windows.get("u:" + username, key -> new Window());
+        // without an address only the username's window counts
+        Window client = address == null ? user : windows.get("a:" + address, key -> new Window());
+
+        // always the address first, so no two attempts lock the same pair in opposite order
+        synchronized (client) {
+            synchronized (user) {
+                if (client != user && client.isFull(now, windowMillis, maxAttemptsPerAddress)) {
+                    throttledAddresses.increment();
+                    throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many login attempts, try again later");
+                }
+                if (user.isFull(now, windowMillis, maxAttemptsPerUser)) {
+                    throttledUsers.increment();
+                    throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many login attempts, try again later");
+                }
+                if (client != user) {
+                    client.record();
+                }
+                user.record();
+            }
+        }
+    }
+
+    /**
+     * Two fixed buckets, with the previous one weighted by how much of it still
+     * overlaps the sliding window. Callers hold its lock.
+     */
+    private static class Window {
+
+        private long bucket;
+
+        private int current;
+
+        private int previous;
+
+        boolean isFull(long now, long windowMillis, int limit) {
+            long nowBucket = now / windowMillis;
+            if (nowBucket != bucket) {
+                previous = nowBucket == bucket + 1 ? current : 0;
+                current = 0;
+                bucket = nowBucket;
+            }
+            double overlap = 1.0 - (double) (now % windowMillis) / windowMillis;
+            return previous * overlap + current >= limit;
+        }
+
+        void record() {
+            current++;
+        }
+    }
+}
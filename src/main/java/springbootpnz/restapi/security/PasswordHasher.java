@@ -0,0 +1,163 @@
+package springbootpnz.restapi.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Runs BCrypt on a dedicated, bounded pool so bursts of logins and registrations
+ * queue up here instead of taking CPU from the request threads serving everything
+ * else. When the queue is full callers get a 503 straight away.
+ * <p>
+ * Unless {@code restapi.password-hashing.log-rounds} is set, the work factor is
+ * calibrated at startup to the highest cost whose hash still fits the configured
+ * target duration on this machine, bounded by the min and max log rounds.
+ */
+@Component
+public class PasswordHasher {
+
+    private final ThreadPoolExecutor executor;
+
+    private final Duration timeout;
+
+    private final Timer hashTimer;
+
+    private final Counter rejected;
+
+    private final Counter rehashed;
+
+    private final int logRounds;
+
+    public PasswordHasher(@Value("${restapi.password-hashing.threads:0}") int threads,
+                          @Value("${restapi.password-hashing.queue-capacity:64}") int queueCapacity,
+                          @Value("${restapi.password-hashing.timeout:5s}") Duration timeout,
+                          @Value("${restapi.password-hashing.log-rounds:0}") int logRounds,
+                          @Value("${restapi.password-hashing.target-duration:250ms}") Duration targetDuration,
+                          @Value("${restapi.password-hashing.min-log-rounds:10}") int minLogRounds,
+                          @Value("${restapi.password-hashing.max-log-rounds:16}") int maxLogRounds,
+                          MeterRegistry meterRegistry) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("password-hashing-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.timeout = timeout;
+        this.hashTimer = Timer.builder("password.hashing.duration").register(meterRegistry);
+        this.rejected = Counter.builder("password.hashing.rejected").register(meterRegistry);
+        this.rehashed = Counter.builder("password.hashing.rehashed").register(meterRegistry);
+        ExecutorServiceMetrics.monitor(meterRegistry, executor, "password.hashing", Collections.emptyList());
+
+        this.logRounds = logRounds > 0 ? logRounds : calibrate(targetDuration, minLogRounds, maxLogRounds);
+        Gauge.builder("password.hashing.log.rounds", this, PasswordHasher::getLogRounds).register(meterRegistry);
+    }
+
+    public int getLogRounds() {
+        return logRounds;
+    }
+
+    public String hash(String password) {
+        return submit(() -> BCrypt.hashpw(password, BCrypt.gensalt(logRounds)));
+    }
+
+    public boolean check(String password, String hashed) {
+        return submit(() -> BCrypt.checkpw(password, hashed));
+    }
+
+    /**
+     * True when the hash was made with a lower work factor than the current one. Stronger
+     * hashes are kept, nodes calibrated on faster hardware may have made them.
+     */
+    public boolean needsRehash(String hashed) {
+        return logRoundsOf(hashed) < logRounds;
+    }
+
+    /**
+     * Hashes the password again in the background and hands the new hash to the callback
+     * on the hashing thread. Skipped when the pool is saturated, the next login retries.
+     */
+    public void rehash(String password, Consumer<String> callback) {
+        try {
+            executor.execute(() -> {
+                callback.accept(hashTimer.record(() -> BCrypt.hashpw(password, BCrypt.gensalt(logRounds))));
+                rehashed.increment();
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+        }
+    }
+
+    private <T> T submit(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(() -> hashTimer.recordCallable(task));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many requests, try again later");
+        }
+
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.increment();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many requests, try again later");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many requests, try again later");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static int calibrate(Duration targetDuration, int minLogRounds, int maxLogRounds) {
+        String salt = BCrypt.gensalt(minLogRounds);
+        long nanos = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            BCrypt.hashpw("calibration", salt);
+            nanos = Math.min(nanos, System.nanoTime() - start);
+        }
+
+        // every extra round doubles the work
+        int rounds = minLogRounds;
+        while (rounds < maxLogRounds && nanos * 2 <= targetDuration.toNanos()) {
+            rounds++;
+            nanos *= 2;
+        }
+        return rounds;
+    }
+
+    private static int logRoundsOf(String hashed) {
+        if (hashed == null || hashed.length() < 7 || hashed.charAt(0) != '$' || hashed.charAt(1) != '2') {
+            return -1;
+        }
+        int off = hashed.charAt(2) == '$' ? 3 : 4;
+        try {
+            return Integer.parseInt(hashed.substring(off, off + 2));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
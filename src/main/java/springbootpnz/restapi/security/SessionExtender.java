@@ -0,0 +1,86 @@
+package springbootpnz.restapi.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import springbootpnz.restapi.entity.Session;
+import springbootpnz.restapi.repository.SessionRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sliding session expiry. A session used within the sliding window of its expiry is
+ * queued here, and the queue is flushed on a schedule with one UPDATE per batch that
+ * moves every queued session to a full ttl from the flush time. Sessions used earlier
+ * in their lifetime cause no writes at all.
+ */
+@Component
+public class SessionExtender {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final Duration ttl;
+
+    private final Duration window;
+
+    private final SessionRepository sessionRepository;
+
+    private final TokenCache tokenCache;
+
+    private final Counter extended;
+
+    public SessionExtender(@Value("${restapi.auth.session-ttl:10d}") Duration ttl,
+                           @Value("${restapi.auth.sliding-window:1d}") Duration window,
+                           SessionRepository sessionRepository,
+                           TokenCache tokenCache,
+                           MeterRegistry meterRegistry) {
+        this.ttl = ttl;
+        this.window = window;
+        this.sessionRepository = sessionRepository;
+        this.tokenCache = tokenCache;
+        this.extended = Counter.builder("auth.session.extended").register(meterRegistry);
+    }
+
+    public long nextExpiry() {
+        return System.currentTimeMillis() + ttl.toMillis();
+    }
+
+    public void touch(Session session) {
+        if (session.getExpiredAt() - System.currentTimeMillis() < window.toMillis()) {
+            pending.add(session.getTokenHash());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${restapi.auth.extension-flush-interval:PT10S}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long expiredAt = nextExpiry();
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        for (String tokenHash : pending) {
+            pending.remove(tokenHash);
+            batch.add(tokenHash);
+            if (batch.size() == BATCH_SIZE) {
+                extend(batch, expiredAt);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            extend(batch, expiredAt);
+        }
+    }
+
+    private void extend(List<String> tokenHashes, long expiredAt) {
+        extended.increment(sessionRepository.extendAll(tokenHashes, expiredAt));
+        tokenCache.invalidateAll(tokenHashes);
+    }
+}
@@ -0,0 +1,72 @@
+package springbootpnz.restapi.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import springbootpnz.restapi.repository.RevokedTokenRepository;
+import springbootpnz.restapi.repository.RevokedUserRepository;
+import springbootpnz.restapi.repository.SessionRepository;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Deletes expired sessions and revocation entries on a schedule. Every batch is its
+ * own short transaction of at most batch-size rows, so the sweep never holds locks on
+ * a large part of the table while logins and logouts are running.
+ */
+@Component
+public class SessionSweeper {
+
+    private final int batchSize;
+
+    private final SessionRepository sessionRepository;
+
+    private final RevokedTokenRepository revokedTokenRepository;
+
+    private final RevokedUserRepository revokedUserRepository;
+
+    private final Counter sweptSessions;
+
+    private final Counter sweptRevocations;
+
+    private final Counter sweptUserRevocations;
+
+    public SessionSweeper(@Value("${restapi.auth.sweep-batch-size:1000}") int batchSize,
+                          SessionRepository sessionRepository,
+                          RevokedTokenRepository revokedTokenRepository,
+                          RevokedUserRepository revokedUserRepository,
+                          MeterRegistry meterRegistry) {
+        this.batchSize = batchSize;
+        this.sessionRepository = sessionRepository;
+        this.revokedTokenRepository = revokedTokenRepository;
+        this.revokedUserRepository = revokedUserRepository;
+        this.sweptSessions = Counter.builder("auth.sweep.deleted").tag("table", "sessions").register(meterRegistry);
+        this.sweptRevocations = Counter.builder("auth.sweep.deleted").tag("table", "revoked_tokens").register(meterRegistry);
+        this.sweptUserRevocations = Counter.builder("auth.sweep.deleted").tag("table", "revoked_users").register(meterRegistry);
+    }
+
+    /**
+     * Returns the number of expired sessions deleted.
+     */
+    @Scheduled(fixedDelayString = "${restapi.auth.sweep-interval:PT5M}")
+    public int sweep() {
+        long now = System.currentTimeMillis();
+        int sessions = sweep(() -> sessionRepository.deleteExpired(now, batchSize));
+        sweptSessions.increment(sessions);
+        sweptRevocations.increment(sweep(() -> revokedTokenRepository.deleteExpired(now, batchSize)));
+        sweptUserRevocations.increment(sweep(() -> revokedUserRepository.deleteExpired(now, batchSize)));
+        return sessions;
+    }
+
+    private int sweep(IntSupplier batch) {
+        int total = 0;
+        int deleted;
+        do {
+            deleted = batch.getAsInt();
+            total += deleted;
+        } while (deleted == batchSize);
+        return total;
+    }
+}
@@ -0,0 +1,222 @@
+package springbootpnz.restapi.security;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import springbootpnz.restapi.entity.RevokedToken;
+import springbootpnz.restapi.entity.RevokedUser;
+import springbootpnz.restapi.entity.Session;
+import springbootpnz.restapi.entity.User;
+import springbootpnz.restapi.repository.RevokedTokenRepository;
+import springbootpnz.restapi.repository.RevokedUserRepository;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Self-contained HMAC-SHA256 tokens of the form {@code v1.<keyId>.<claims>.<signature>},
+ * used when {@code restapi.auth.token-mode=signed}. The first configured signing key
+ * signs new tokens and every configured key is accepted, so keys can be rotated by
+ * prepending a new one and dropping the old one after the token lifetime has passed.
+ * Logged out tokens are kept in an in-memory revocation list, and users whose tokens
+ * were all revoked, e.g. by a password change, in a not-before list. Each refresh only
+ * reads the revocations made since the previous one, and entries are dropped locally
+ * once the tokens they revoke have expired.
+ */
+@Component
+public class SignedTokens {
+
+    private static final String VERSION = "v1";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    // refreshes read back this far, for revocations committed late or by a node whose clock is behind
+    private static final long REFRESH_OVERLAP = TimeUnit.MINUTES.toMillis(1);
+
+    private final TokenMode tokenMode;
+
+    private final Map<String, SecretKeySpec> keys = new LinkedHashMap<>();
+
+    private final String activeKeyId;
+
+    private final ThreadLocal<Map<String, Mac>> macs = ThreadLocal.withInitial(HashMap::new);
+
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    private final Map<String, RevokedUser> revokedUsers = new ConcurrentHashMap<>();
+
+    private volatile long refreshedAt;
+
+    private final ObjectMapper objectMapper;
+
+    private final RevokedTokenRepository revokedTokenRepository;
+
+    private final RevokedUserRepository revokedUserRepository;
+
+    private final Duration tokenTtl;
+
+    public SignedTokens(@Value("${restapi.auth.token-mode:session}") TokenMode tokenMode,
+                        @Value("${restapi.auth.signing-keys:}") List<String> signingKeys,
+                        @Value("${restapi.auth.session-ttl:10d}") Duration tokenTtl,
+                        ObjectMapper objectMapper,
+                        RevokedTokenRepository revokedTokenRepository,
+                        RevokedUserRepository revokedUserRepository) {
+        this.tokenMode = tokenMode;
+        this.tokenTtl = tokenTtl;
+        this.objectMapper = objectMapper;
+        this.revokedTokenRepository = revokedTokenRepository;
+        this.revokedUserRepository = revokedUserRepository;
+
+        for (String signingKey : signingKeys) {
+            int separator = signingKey.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalStateException("Signing keys must be configured as <keyId>:<base64 secret>");
+            }
+            String keyId = signingKey.substring(0, separator).trim();
+            // the key id is one of the dot separated parts of the token
+            if (keyId.contains(".")) {
+                throw new IllegalStateException("Signing key id " + keyId + " must not contain '.'");
+            }
+            byte[] secret = Base64.getDecoder().decode(signingKey.substring(separator + 1).trim());
+            if (secret.length < 32) {
+                throw new IllegalStateException("Signing key " + keyId + " must be at least 256 bits");
+            }
+            keys.put(keyId, new SecretKeySpec(secret, ALGORITHM));
+        }
+        if (isEnabled() && keys.isEmpty()) {
+            throw new IllegalStateException("restapi.auth.signing-keys is required when restapi.auth.token-mode=signed");
+        }
+        this.activeKeyId = keys.isEmpty() ? null : keys.keySet().iterator().next();
+    }
+
+    public boolean isEnabled() {
+        return tokenMode == TokenMode.SIGNED;
+    }
+
+    public String issue(User user, long createdAt, long expiredAt) {
+        Claims claims = new Claims(user.getUsername(), user.getName(), createdAt, expiredAt);
+        String payload;
+        try {
+            payload = ENCODER.encodeToString(objectMapper.writeValueAsBytes(claims));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        String signingInput = VERSION + "." + activeKeyId + "." + payload;
+        return signingInput + "." + ENCODER.encodeToString(sign(activeKeyId, signingInput));
+    }
+
+    /**
+     * Returns the session described by the token, or null when the token is malformed,
+     * signed with an unknown key, tampered with, revoked or issued before its user's
+     * tokens were revoked. Expiry is left to the caller.
+     */
+    public Session verify(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length != 4 || !VERSION.equals(parts[0]) || !keys.containsKey(parts[1])) {
+            return null;
+        }
+
+        Claims claims;
+        try {
+            byte[] signature = DECODER.decode(parts[3]);
+            byte[] expected = sign(parts[1], token.substring(0, token.lastIndexOf('.')));
+            if (!MessageDigest.isEqual(expected, signature)) {
+                return null;
+            }
+            claims = objectMapper.readValue(DECODER.decode(parts[2]), Claims.class);
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+
+        String tokenHash = TokenHash.hash(token);
+        if (revoked.containsKey(tokenHash)) {
+            return null;
+        }
+        RevokedUser revokedUser = revokedUsers.get(claims.sub());
+        if (Objects.nonNull(revokedUser) && claims.iat() < revokedUser.getNotBefore()) {
+            return null;
+        }
+
+        User user = new User();
+        user.setUsername(claims.sub());
+        user.setName(claims.name());
+
+        Session session = new Session();
+        session.setTokenHash(tokenHash);
+        session.setUser(user);
+        session.setCreatedAt(claims.iat());
+        session.setExpiredAt(claims.exp());
+        return session;
+    }
+
+    public void revoke(Session session) {
+        revokedTokenRepository.save(new RevokedToken(session.getTokenHash(), session.getUser().getUsername(),
+                System.currentTimeMillis(), session.getExpiredAt()));
+        revoked.put(session.getTokenHash(), session.getExpiredAt());
+    }
+
+    /**
+     * Revokes every token of the user issued until now. Kept until the last of them has
+     * expired, a token lives at most the session ttl.
+     */
+    public void revokeAll(String username) {
+        if (!isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        RevokedUser revokedUser = new RevokedUser(username, now, now + tokenTtl.toMillis());
+        revokedUserRepository.save(revokedUser);
+        revokedUsers.put(username, revokedUser);
+    }
+
+    @Scheduled(fixedDelayString = "${restapi.auth.revocation-refresh-interval:PT30S}")
+    public void refreshRevocations() {
+        if (!isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        // the first refresh loads every unexpired revocation, later ones only the recent ones
+        long since = refreshedAt == 0 ? 0 : refreshedAt - REFRESH_OVERLAP;
+        for (RevokedToken revokedToken : revokedTokenRepository.findAllByRevokedAtGreaterThanAndExpiredAtGreaterThan(since, now)) {
+            revoked.put(revokedToken.getTokenHash(), revokedToken.getExpiredAt());
+        }
+        for (RevokedUser revokedUser : revokedUserRepository.findAllByNotBeforeGreaterThanAndExpiredAtGreaterThan(since, now)) {
+            revokedUsers.merge(revokedUser.getUsername(), revokedUser,
+                    (current, loaded) -> current.getNotBefore() >= loaded.getNotBefore() ? current : loaded);
+        }
+        refreshedAt = now;
+
+        revoked.values().removeIf(expiredAt -> expiredAt <= now);
+        revokedUsers.values().removeIf(revokedUser -> revokedUser.getExpiredAt() <= now);
+    }
+
+    private byte[] sign(String keyId, String signingInput) {
+        Mac mac = macs.get().computeIfAbsent(keyId, id -> {
+            try {
+                Mac instance = Mac.getInstance(ALGORITHM);
+                instance.init(keys.get(id));
+                return instance;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        return mac.doFinal(signingInput.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private record Claims(String sub, String name, long iat, long exp) {
+    }
+}
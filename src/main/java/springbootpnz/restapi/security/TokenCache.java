@@ -0,0 +1,103 @@
+package springbootpnz.restapi.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import springbootpnz.restapi.entity.Session;
+import springbootpnz.restapi.entity.User;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Bounded token hash to session cache in front of the sessions table. Entries live for
+ * at most the configured ttl and never past the session's own expiry, and hold detached
+ * copies so callers can't mutate each other's principal.
+ */
+@Component
+public class TokenCache {
+
+    private final Cache<String, Session> cache;
+
+    public TokenCache(@Value("${restapi.auth.token-cache.maximum-size:10000}") long maximumSize,
+                      @Value("${restapi.auth.token-cache.ttl:5m}") Duration ttl,
+                      MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new SessionExpiry(ttl.toNanos()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "auth.token");
+    }
+
+    public Session get(String tokenHash, Function<String, Session> loader) {
+        Session session = cache.get(tokenHash, key -> {
+            Session loaded = loader.apply(key);
+            return Objects.isNull(loaded) ? null : copyOf(loaded);
+        });
+        return Objects.isNull(session) ? null : copyOf(session);
+    }
+
+    public void invalidateAll(Collection<String> tokenHashes) {
+        cache.invalidateAll(tokenHashes);
+    }
+
+    /**
+     * Invalidates now and again once the surrounding transaction commits, so a request
+     * racing the revocation can't re-cache a row that is about to be deleted.
+     */
+    public void invalidateAfterCommit(Collection<String> tokenHashes) {
+        invalidateAll(tokenHashes);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidateAll(tokenHashes);
+                }
+            });
+        }
+    }
+
+    private static Session copyOf(Session session) {
+        User user = new User();
+        user.setUsername(session.getUser().getUsername());
+        user.setPassword(session.getUser().getPassword());
+        user.setName(session.getUser().getName());
+
+        Session copy = new Session();
+        copy.setTokenHash(session.getTokenHash());
+        copy.setUser(user);
+        copy.setDevice(session.getDevice());
+        copy.setCreatedAt(session.getCreatedAt());
+        copy.setExpiredAt(session.getExpiredAt());
+        return copy;
+    }
+
+    private record SessionExpiry(long ttlNanos) implements Expiry<String, Session> {
+
+        @Override
+        public long expireAfterCreate(String tokenHash, Session session, long currentTime) {
+            long remainingMillis = session.getExpiredAt() - System.currentTimeMillis();
+            return Math.max(0, Math.min(ttlNanos, TimeUnit.MILLISECONDS.toNanos(remainingMillis)));
+        }
+
+        @Override
+        public long expireAfterUpdate(String tokenHash, Session session, long currentTime, long currentDuration) {
+            return expireAfterCreate(tokenHash, session, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String tokenHash, Session session, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package springbootpnz.restapi.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Tokens are only ever stored as their SHA-256 hex digest, which gives the
+ * sessions table a fixed-width primary key and keeps raw tokens out of the database.
+ */
+public final class TokenHash {
+
+    private TokenHash() {
+    }
+
+    public static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
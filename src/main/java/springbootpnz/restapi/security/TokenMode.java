@@ -0,0 +1,6 @@
+package springbootpnz.restapi.security;
+
+public enum TokenMode {
+    SESSION,
+    SIGNED
+}
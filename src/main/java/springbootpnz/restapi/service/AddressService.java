@@ -13,6 +13,7 @@ import springbootpnz.restapi.model.CreateAddressRequest;
 import springbootpnz.restapi.model.UpdateAddressRequest;
 import springbootpnz.restapi.repository.AddressRepository;
 import springbootpnz.restapi.repository.ContactRepository;
+import springbootpnz.restapi.search.ContactSearchCache;
 
 import java.util.List;
 import java.util.Objects;
@@ -29,6 +30,9 @@ public class AddressService {
     @Autowired
     private ValidationService validationService;
 
+    @Autowired
+    private ContactSearchCache contactSearchCache;
+
 
     private AddressResponse toAddressResponse(Address address) {
         return AddressResponse.builder()
@@ -57,6 +61,7 @@ public class AddressService {
         address.setProvince(request.getProvince());
 
         addressRepository.save(address);
+        contactSearchCache.invalidateAfterCommit(user.getUsername());
 
         return toAddressResponse(address);
     }
@@ -89,24 +94,31 @@ public class AddressService {
             address.setProvince(request.getProvince());
         };
         addressRepository.save(address);
+        contactSearchCache.invalidateAfterCommit(user.getUsername());
         return toAddressResponse(address);
     };
 
+    /**
+     * Reads are projected straight into {@link AddressResponse}.
+     */
     @Transactional(readOnly = true)
     public AddressResponse get(User user,String contactId, String addressId) {
-
-        Contact contact = contactRepository.findFirstByUserAndId(user, contactId).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Contact not found"));
-        Address address = addressRepository.findFirstByContactAndId(contact, addressId).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Address not found"));
-
-        return toAddressResponse(address);
+        checkContact(user, contactId);
+        return addressRepository.findResponses(contactId, addressId).stream()
+                .findFirst()
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Address not found"));
     }
 
     @Transactional(readOnly = true)
     public List<AddressResponse> getByContact(User user, String contactId) {
-        Contact contact = contactRepository.findFirstByUserAndId(user, contactId).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Contact not found"));
-        List<Address> addresses = addressRepository.findAllByContact(contact);
+        checkContact(user, contactId);
+        return addressRepository.findResponses(contactId, null);
+    }
 
-        return addresses.stream().map(this::toAddressResponse).toList();
+    private void checkContact(User user, String contactId) {
+        if (!contactRepository.existsByIdAndUserUsername(contactId, user.getUsername())) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Contact not found");
+        }
     }
 
     @Transactional
@@ -114,5 +126,6 @@ public class AddressService {
         Contact contact = contactRepository.findFirstByUserAndId(user, contactId).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Contact not found"));
         Address address = addressRepository.findFirstByContactAndId(contact, addressId).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Address not found"));
         addressRepository.delete(address);
+        contactSearchCache.invalidateAfterCommit(user.getUsername());
     }
 }
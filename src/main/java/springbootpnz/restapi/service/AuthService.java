@@ -2,15 +2,25 @@ package springbootpnz.restapi.service;
 
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
+import springbootpnz.restapi.entity.Session;
 import springbootpnz.restapi.entity.User;
 import springbootpnz.restapi.model.LoginUserRequest;
 import springbootpnz.restapi.model.TokenResponse;
+import springbootpnz.restapi.repository.SessionRepository;
 import springbootpnz.restapi.repository.UserRepository;
-import springbootpnz.restapi.security.BCrypt;
+import springbootpnz.restapi.security.LoginThrottle;
+import springbootpnz.restapi.security.PasswordHasher;
+import springbootpnz.restapi.security.SessionExtender;
+import springbootpnz.restapi.security.SignedTokens;
+import springbootpnz.restapi.security.TokenCache;
+import springbootpnz.restapi.security.TokenHash;
 
+import java.util.List;
 import java.util.UUID;
 
 @Service
@@ -18,23 +28,71 @@ public class AuthService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private SessionRepository sessionRepository;
+
     @Autowired
     private ValidationService validationService;
 
-    public TokenResponse login(LoginUserRequest loginUserRequest) {
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private TokenCache tokenCache;
+
+    @Autowired
+    private SignedTokens signedTokens;
+
+    @Autowired
+    private SessionExtender sessionExtender;
+
+    @Autowired
+    private LoginThrottle loginThrottle;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${restapi.auth.max-sessions-per-user:10}")
+    private int maxSessionsPerUser;
+
+    /**
+     * Not transactional: the password is checked on the hashing pool without holding a
+     * connection, and only storing the session takes a short transaction.
+     */
+    public TokenResponse login(LoginUserRequest loginUserRequest, String clientAddress) {
         validationService.Validate(loginUserRequest);
+        loginThrottle.acquire(loginUserRequest.getUsername(), clientAddress);
 
         User user = userRepository.findById(loginUserRequest.getUsername())
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid username or password"));
-        if (BCrypt.checkpw(loginUserRequest.getPassword(), user.getPassword())) {
-            user.setToken(UUID.randomUUID().toString());
-            user.setTokenExpiredAt(next10Days());
-            userRepository.save(user);
+        if (passwordHasher.check(loginUserRequest.getPassword(), user.getPassword())) {
+            rehashIfNeeded(user, loginUserRequest.getPassword());
+
+            if (signedTokens.isEnabled()) {
+                long expiredAt = sessionExtender.nextExpiry();
+                return TokenResponse
+                        .builder()
+                        .token(signedTokens.issue(user, System.currentTimeMillis(), expiredAt))
+                        .tokenExpiresIn(expiredAt)
+                        .build();
+            }
+
+            String token = UUID.randomUUID().toString();
+            Session session = new Session();
+            session.setTokenHash(TokenHash.hash(token));
+            session.setUser(user);
+            session.setDevice(loginUserRequest.getDevice());
+            session.setCreatedAt(System.currentTimeMillis());
+            session.setExpiredAt(sessionExtender.nextExpiry());
+            transactionTemplate.executeWithoutResult(status -> {
+                sessionRepository.save(session);
+                trimSessions(user);
+            });
 
             return  TokenResponse
                     .builder()
-                    .token(user.getToken())
-                    .tokenExpiresIn(user.getTokenExpiredAt())
+                    .token(token)
+                    .tokenExpiresIn(session.getExpiredAt())
                     .build();
         } else {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid username or password");
@@ -42,13 +100,42 @@ public class AuthService {
     };
 
     @Transactional
-    public void logout(User user){
-        user.setToken(null);
-        user.setTokenExpiredAt(null);
-        userRepository.save(user);
+    public void logout(Session session){
+        if (signedTokens.isEnabled()) {
+            signedTokens.revoke(session);
+            return;
+        }
+        revoke(List.of(session));
+    }
+
+    @Transactional
+    public void logoutAll(User user) {
+        if (signedTokens.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Signed tokens can only be revoked one at a time");
+        }
+        revoke(sessionRepository.findAllByUser(user));
+    }
+
+    private void rehashIfNeeded(User user, String password) {
+        if (!passwordHasher.needsRehash(user.getPassword())) {
+            return;
+        }
+        String username = user.getUsername();
+        String oldPassword = user.getPassword();
+        // only replaces the hash we checked against, a concurrent password change wins
+        passwordHasher.rehash(password, newPassword -> userRepository.updatePassword(username, oldPassword, newPassword));
+    }
+
+    private void trimSessions(User user) {
+        List<Session> sessions = sessionRepository.findAllByUserOrderByCreatedAtDesc(user);
+        if (sessions.size() > maxSessionsPerUser) {
+            revoke(sessions.subList(maxSessionsPerUser, sessions.size()));
+        }
     }
 
-    private Long next10Days() {
-        return System.currentTimeMillis() + 10 * 24 * 60 * 60 * 1000;
+    private void revoke(List<Session> sessions) {
+        List<String> tokenHashes = sessions.stream().map(Session::getTokenHash).toList();
+        sessionRepository.deleteAllByIdInBatch(tokenHashes);
+        tokenCache.invalidateAfterCommit(tokenHashes);
     }
 }
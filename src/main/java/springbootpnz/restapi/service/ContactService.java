@@ -1,28 +1,46 @@
 package springbootpnz.restapi.service;
 
-import jakarta.persistence.criteria.Predicate;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.domain.Specification;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.domain.*;
+import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.http.HttpStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 import springbootpnz.restapi.entity.Contact;
 import springbootpnz.restapi.entity.User;
+import springbootpnz.restapi.model.AddressResponse;
+import springbootpnz.restapi.model.ContactMatchResponse;
 import springbootpnz.restapi.model.ContactResponse;
 import springbootpnz.restapi.model.CreateContactRequest;
 import springbootpnz.restapi.model.SearchContactRequest;
+import springbootpnz.restapi.model.TotalType;
 import springbootpnz.restapi.model.UpdateContactRequest;
+import springbootpnz.restapi.repository.AddressRepository;
+import springbootpnz.restapi.repository.ContactDoc;
 import springbootpnz.restapi.repository.ContactRepository;
+import springbootpnz.restapi.repository.ContactRepositoryCustom;
+import springbootpnz.restapi.search.ContactIndex;
+import springbootpnz.restapi.search.ContactIndexes;
+import springbootpnz.restapi.search.ContactNormalizer;
+import springbootpnz.restapi.search.ContactSearchCache;
+import springbootpnz.restapi.search.EstimatedPage;
+import springbootpnz.restapi.search.FuzzyScorer;
+import springbootpnz.restapi.search.PartialSlice;
+import springbootpnz.restapi.search.SearchCountExecutor;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
-import java.util.UUID;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Consumer;
 
 @Service
 public class ContactService {
@@ -33,6 +51,43 @@ public class ContactService {
     @Autowired
     private ValidationService validationService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ContactIndexes contactIndexes;
+
+    @Autowired
+    private AddressRepository addressRepository;
+
+    @Autowired
+    private ContactNormalizer contactNormalizer;
+
+    @Autowired
+    private ContactSearchCache contactSearchCache;
+
+    @Autowired
+    private SearchCountExecutor searchCountExecutor;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${restapi.contacts.search-budget:2s}")
+    private Duration searchBudget;
+
+    private static final int MAX_SUGGESTIONS = 50;
+
+    private static final int MAX_FUZZY_CANDIDATES = 256;
+
+    private static final double MIN_FUZZY_SCORE = 0.5;
+
+    private static final Base64.Encoder CURSOR_ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder CURSOR_DECODER = Base64.getUrlDecoder();
+
 
     private ContactResponse toContactResponse(Contact contact) {
         return ContactResponse.builder()
@@ -45,6 +100,16 @@ public class ContactService {
     }
 
 
+    private ContactResponse toContactResponse(ContactDoc doc) {
+        return ContactResponse.builder()
+                .id(doc.id())
+                .firstName(doc.firstName())
+                .lastName(doc.lastName())
+                .phone(doc.phone())
+                .email(doc.email())
+                .build();
+    }
+
     @Transactional
     public ContactResponse createContact(User user, CreateContactRequest request) {
         validationService.Validate(request);
@@ -56,17 +121,27 @@ public class ContactService {
         contact.setLastName(request.getLastName());
         contact.setEmail(request.getEmail());
         contact.setPhone(request.getPhone());
+        normalize(contact);
 
         contactRepository.save(contact);
+        contactIndexes.putAfterCommit(user.getUsername(), contact);
+        contactSearchCache.invalidateAfterCommit(user.getUsername());
 
         return toContactResponse(contact);
     }
 
+    /**
+     * Read as a record rather than a managed entity.
+     */
     @Transactional(readOnly = true)
-    public ContactResponse get(User user, String id) {
-        Contact contact = contactRepository.findFirstByUserAndId(user, id)
+    public ContactResponse get(User user, String id, boolean expandAddresses) {
+        ContactResponse contactResponse = contactRepository.findDoc(user.getUsername(), id)
+                .map(this::toContactResponse)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,"Contact not found"));
-        return toContactResponse(contact);
+        if (expandAddresses) {
+            embedAddresses(List.of(contactResponse));
+        }
+        return contactResponse;
     }
 
     @Transactional
@@ -87,47 +162,367 @@ public class ContactService {
         if(Objects.nonNull(request.getLastName())) {
             contact.setLastName(request.getLastName());
         }
+        normalize(contact);
         contactRepository.save(contact);
+        contactIndexes.putAfterCommit(contact.getUser().getUsername(), contact);
+        contactSearchCache.invalidateAfterCommit(contact.getUser().getUsername());
         return toContactResponse(contact);
     }
 
+    private void normalize(Contact contact) {
+        contact.setPhoneNormalized(contactNormalizer.phone(contact.getPhone()));
+        contact.setEmailNormalized(contactNormalizer.email(contact.getEmail()));
+        contact.setEmailDomain(contactNormalizer.emailDomain(contact.getEmail()));
+    }
+
     @Transactional
     public void delete(User user, String contactId) {
         Contact contact = contactRepository.findById(contactId).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,"Contact not found"));
 
         contactRepository.delete(contact);
+        contactIndexes.removeAfterCommit(contact.getUser().getUsername(), contact.getId());
+        contactSearchCache.invalidateAfterCommit(contact.getUser().getUsername());
 
     }
 
-    @Transactional(readOnly = true)
-    public Page<ContactResponse> search(User user, SearchContactRequest request) {
-        Specification<Contact> specification = (root,query, builder) -> {
-            List<Predicate> predicates = new ArrayList<>();
-            predicates.add(builder.equal(root.get("user"), user));
-            if (Objects.nonNull(request.getName())) {
-                predicates.add(builder.or(
-                        builder.like(root.get("firstName"), "%" + request.getName() + "%"),
-                        builder.like(root.get("lastName"), "%" + request.getName() + "%")
-                ));
+    /**
+     * Returns a {@link Page} when an exact or estimated total was asked for, and a plain
+     * {@link Slice} that only knows whether a next page exists otherwise. Statements are
+     * cancelled once they exceed the search budget, and the search then returns a
+     * {@link PartialSlice} of what it could read. The cache is looked up before the read
+     * transaction starts, so a hit needs no connection.
+     */
+    public Slice<ContactResponse> search(User user, SearchContactRequest request) {
+        Pageable pageable = PageRequest.of(request.getPage(), request.getSize(), Objects.requireNonNullElse(request.getSort(), Sort.unsorted()));
+        TotalType totalType = Objects.requireNonNullElse(request.getTotal(), TotalType.EXACT);
+        ContactRepositoryCustom.Filter filter = searchFilter(request);
+
+        return contactSearchCache.get(user.getUsername(), filter, pageable, totalType, request.isExpandAddresses(), columns(request),
+                () -> readOnly(status -> {
+                    Slice<ContactResponse> page = searchUncached(user, request, filter, pageable, totalType);
+                    // the cancelled statement aborted the transaction, roll it back quietly
+                    if (page instanceof PartialSlice) {
+                        status.setRollbackOnly();
+                    }
+                    return page;
+                }));
+    }
+
+    private static ContactRepositoryCustom.Columns columns(SearchContactRequest request) {
+        return request.isNamesOnly() ? ContactRepositoryCustom.Columns.NAMES : ContactRepositoryCustom.Columns.ALL;
+    }
+
+    private <T> T readOnly(TransactionCallback<T> action) {
+        TransactionTemplate readOnly = new TransactionTemplate(Objects.requireNonNull(transactionTemplate.getTransactionManager()));
+        readOnly.setReadOnly(true);
+        return readOnly.execute(action);
+    }
+
+    /**
+     * Embeds the addresses of the whole page with one query. A partial page comes
+     * without them, its transaction is already aborted.
+     */
+    private Slice<ContactResponse> withAddresses(Slice<ContactResponse> page, SearchContactRequest request) {
+        if (!request.isExpandAddresses() || page instanceof PartialSlice) {
+            return page;
+        }
+        try {
+            embedAddresses(page.getContent());
+        } catch (QueryTimeoutException e) {
+            return partial(page.getContent(), page.getPageable());
+        }
+        return page;
+    }
+
+    private void embedAddresses(List<ContactResponse> contactResponses) {
+        Map<String, List<AddressResponse>> addresses = addressRepository.findResponsesByContacts(
+                contactResponses.stream().map(ContactResponse::getId).toList());
+        for (ContactResponse contactResponse : contactResponses) {
+            contactResponse.setAddresses(addresses.getOrDefault(contactResponse.getId(), List.of()));
+        }
+    }
+
+    private Slice<ContactResponse> searchUncached(User user, SearchContactRequest request, ContactRepositoryCustom.Filter filter,
+                                                  Pageable pageable, TotalType totalType) {
+        // the in-memory index only knows the substring filters in id order, the rest are index scans anyway
+        if (contactIndexes.isEnabled() && pageable.getSort().isUnsorted() && Objects.isNull(filter.phoneExact()) && Objects.isNull(filter.phonePrefix())
+                && Objects.isNull(filter.emailExact()) && Objects.isNull(filter.emailDomain())) {
+            return withAddresses(searchIndex(user, request, pageable, totalType), request);
+        }
+
+        if (!searchBudget.isZero()) {
+            contactRepository.setStatementTimeout(searchBudget);
+        }
+
+        if (totalType == TotalType.EXACT) {
+            return searchCounted(user, request, filter, pageable);
+        }
+        return withAddresses(searchUncounted(user, request, filter, pageable, totalType), request);
+    }
+
+    /**
+     * A page with its exact total. The count starts on a second connection alongside the
+     * page query and is cancelled when the page tells the total by itself, as with
+     * {@link PageableExecutionUtils}.
+     */
+    private Slice<ContactResponse> searchCounted(User user, SearchContactRequest request, ContactRepositoryCustom.Filter filter,
+                                                 Pageable pageable) {
+        SearchCountExecutor.Pending count = searchCountExecutor.fork(canceller -> countWithinBudget(user, filter, canceller));
+        List<ContactResponse> contactResponses = null;
+        try {
+            contactResponses = searchPage(user, filter, columns(request), pageable.getSort(), null, pageable.getOffset(), pageable.getPageSize());
+            if (contactResponses.size() < pageable.getPageSize() && (!contactResponses.isEmpty() || pageable.getOffset() == 0)) {
+                count.cancel();
+            }
+            if (request.isExpandAddresses()) {
+                embedAddresses(contactResponses);
             }
+            return PageableExecutionUtils.getPage(contactResponses, pageable, count);
+        } catch (QueryTimeoutException e) {
+            return partial(contactResponses, pageable);
+        } finally {
+            count.cancel();
+        }
+    }
+
+    private Slice<ContactResponse> searchUncounted(User user, SearchContactRequest request, ContactRepositoryCustom.Filter filter,
+                                                   Pageable pageable, TotalType totalType) {
+        // size + 1 rows tell whether there is a next page without a count query
+        List<ContactResponse> contactResponses;
+        try {
+            contactResponses = searchPage(user, filter, columns(request), pageable.getSort(), null, pageable.getOffset(), pageable.getPageSize() + 1);
+        } catch (QueryTimeoutException e) {
+            return partial(null, pageable);
+        }
+        boolean hasNext = contactResponses.size() > pageable.getPageSize();
+        if (hasNext) {
+            contactResponses = contactResponses.subList(0, pageable.getPageSize());
+        }
 
-            if (Objects.nonNull(request.getPhone())) {
-                predicates.add(builder.like(root.get("phone"), "%" + request.getPhone() + "%"));
+        if (totalType == TotalType.NONE) {
+            return new SliceImpl<>(contactResponses, pageable, hasNext);
+        }
+
+        // the last page knows its total exactly
+        long seen = pageable.getOffset() + contactResponses.size();
+        if (!hasNext) {
+            return new PageImpl<>(contactResponses, pageable, seen);
+        }
+        return new EstimatedPage<>(contactResponses, pageable, Math.max(seen + 1, contactRepository.estimateCount(user.getUsername(), filter)));
+    }
+
+    /**
+     * One page of the search, projected from the columns without hydrating entities.
+     */
+    private List<ContactResponse> searchPage(User user, ContactRepositoryCustom.Filter filter, ContactRepositoryCustom.Columns columns,
+                                             Sort sort, String afterId, long offset, int limit) {
+        return contactRepository.searchDocs(user.getUsername(), filter, columns, sort, afterId, offset, limit)
+                .stream().map(this::toContactResponse).toList();
+    }
+
+    /**
+     * A forked count runs outside the search transaction, so it gets one of its own with
+     * the same statement timeout.
+     */
+    private long countWithinBudget(User user, ContactRepositoryCustom.Filter filter, Consumer<Runnable> canceller) {
+        return transactionTemplate.execute(status -> {
+            if (!searchBudget.isZero()) {
+                contactRepository.setStatementTimeout(searchBudget);
             }
+            canceller.accept(contactRepository.statementCanceller());
+            return contactRepository.searchCount(user.getUsername(), filter);
+        });
+    }
+
+    /**
+     * What is left when a statement ran out of the search budget: the page if only the
+     * count timed out, nothing if the page did.
+     */
+    private Slice<ContactResponse> partial(List<ContactResponse> contactResponses, Pageable pageable) {
+        meterRegistry.counter("contacts.search.partial").increment();
+        if (Objects.isNull(contactResponses)) {
+            return new PartialSlice<>(List.of(), pageable, false);
+        }
+        return new PartialSlice<>(contactResponses, pageable, contactResponses.size() == pageable.getPageSize());
+    }
+
+    /**
+     * Answers the search from the user's in-memory index. Matches come back complete and
+     * ordered by id, so the total is exact whichever total type was asked for.
+     */
+    private Slice<ContactResponse> searchIndex(User user, SearchContactRequest request, Pageable pageable, TotalType totalType) {
+        ContactIndex.Result result = contactIndexes.get(user.getUsername())
+                .search(request.getName(), request.getEmail(), request.getPhone(), pageable.getOffset(), pageable.getPageSize());
+        List<ContactResponse> contactResponses = result.page().stream().map(this::toContactResponse).toList();
+
+        if (totalType == TotalType.NONE) {
+            return new SliceImpl<>(contactResponses, pageable, pageable.getOffset() + contactResponses.size() < result.total());
+        }
+        return new PageImpl<>(contactResponses, pageable, result.total());
+    }
 
-            if (Objects.nonNull(request.getEmail())) {
-                predicates.add(builder.like(root.get("email"), "%" + request.getEmail() + "%"));
+    /**
+     * Typeahead: up to limit contacts whose first name, last name, full name or email
+     * starts with the prefix, ignoring case.
+     */
+    @Transactional(readOnly = true)
+    public List<ContactResponse> suggest(User user, String prefix, int limit) {
+        if (prefix == null || prefix.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "prefix must not be blank");
+        }
+        if (limit < 1 || limit > MAX_SUGGESTIONS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_SUGGESTIONS);
+        }
+
+        if (contactIndexes.isEnabled()) {
+            return contactIndexes.get(user.getUsername()).suggest(prefix, limit).stream().map(this::toContactResponse).toList();
+        }
+
+        String from = prefix.toLowerCase(Locale.ROOT);
+        return contactRepository.findByPrefix(user.getUsername(), from, prefixEnd(from), limit)
+                .stream().map(this::toContactResponse).toList();
+    }
+
+    /**
+     * The first string past every string starting with prefix in code point order, which
+     * is byte order in UTF-8: the prefix with its last code point incremented, skipping
+     * the surrogates, which can't stand alone. Trailing U+10FFFF have no successor and are
+     * dropped first; null when nothing is left.
+     */
+    private static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0) {
+            int last = prefix.codePointBefore(end);
+            end -= Character.charCount(last);
+            if (last < Character.MAX_CODE_POINT) {
+                int next = last + 1 == Character.MIN_SURROGATE ? Character.MAX_SURROGATE + 1 : last + 1;
+                return prefix.substring(0, end) + Character.toString(next);
             }
+        }
+        return null;
+    }
 
-            return query.where(predicates.toArray(new Predicate[]{})).getRestriction();
-        };
+    /**
+     * Ranked fuzzy name search: up to limit contacts whose first, last or full name is
+     * within a small edit distance of the name or sounds alike, best match first.
+     */
+    @Transactional(readOnly = true)
+    public List<ContactMatchResponse> fuzzy(User user, String name, int limit) {
+        if (name == null || name.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "name must not be blank");
+        }
+        if (limit < 1 || limit > MAX_SUGGESTIONS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_SUGGESTIONS);
+        }
 
-        Pageable pageable = PageRequest.of(request.getPage(), request.getSize());
-        Page<Contact> contacts = contactRepository.findAll(specification, pageable);
+        List<ContactIndex.Match> matches;
+        if (contactIndexes.isEnabled()) {
+            matches = contactIndexes.get(user.getUsername()).fuzzy(name, limit, MIN_FUZZY_SCORE);
+        } else {
+            // trigram candidates from pg_trgm, scored the same way as the in-memory index does
+            matches = contactRepository.findSimilar(user.getUsername(), name.trim(), MAX_FUZZY_CANDIDATES).stream()
+                    .map(doc -> new ContactIndex.Match(doc, FuzzyScorer.score(name, doc, MIN_FUZZY_SCORE)))
+                    .filter(match -> match.score() >= MIN_FUZZY_SCORE)
+                    .sorted(Comparator.comparingDouble(ContactIndex.Match::score).reversed().thenComparing(match -> match.doc().id()))
+                    .limit(limit)
+                    .toList();
+        }
 
-        List<ContactResponse> contactResponses = contacts.getContent().stream().map(this::toContactResponse).toList();
+        return matches.stream()
+                .map(match -> ContactMatchResponse.builder()
+                        .contact(toContactResponse(match.doc()))
+                        .score(match.score())
+                        .build())
+                .toList();
+    }
+
+    /**
+     * Keyset variant of {@link #search}: seeks past the cursor id on the (username, id)
+     * index instead of skipping rows with OFFSET, and never counts.
+     */
+    @Transactional(readOnly = true)
+    public Window<ContactResponse> scroll(User user, SearchContactRequest request) {
+        if (Objects.nonNull(request.getSort())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort is not supported with cursor");
+        }
+        ContactRepositoryCustom.Filter filter = searchFilter(request);
+        String afterId = decodeCursor(request.getCursor());
+        if (!searchBudget.isZero()) {
+            contactRepository.setStatementTimeout(searchBudget);
+        }
+
+        List<ContactResponse> contactResponses;
+        try {
+            // the cursor is the last id, which every select list reads
+            contactResponses = searchPage(user, filter, columns(request), Sort.unsorted(), afterId, 0, request.getSize() + 1);
+        } catch (QueryTimeoutException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Search took too long, narrow the filters");
+        }
+        boolean hasNext = contactResponses.size() > request.getSize();
+        if (hasNext) {
+            contactResponses = contactResponses.subList(0, request.getSize());
+        }
+        if (request.isExpandAddresses()) {
+            try {
+                embedAddresses(contactResponses);
+            } catch (QueryTimeoutException e) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Search took too long, narrow the filters");
+            }
+        }
 
-        return new PageImpl<>(contactResponses, pageable, contacts.getTotalElements());
+        List<ContactResponse> content = contactResponses;
+        return Window.from(content, index -> ScrollPosition.forward(Map.of("id", content.get(index).getId())), hasNext);
+    }
+
+    public String encodeCursor(ScrollPosition position) {
+        if (!(position instanceof KeysetScrollPosition keyset) || keyset.isInitial()) {
+            return null;
+        }
+        try {
+            return CURSOR_ENCODER.encodeToString(objectMapper.writeValueAsBytes(keyset.getKeys()));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            Map<String, Object> keys = objectMapper.readValue(CURSOR_DECODER.decode(cursor), new TypeReference<Map<String, Object>>() {});
+            if (!(keys.get("id") instanceof String)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+            }
+            return (String) keys.get("id");
+        } catch (IllegalArgumentException | IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    private ContactRepositoryCustom.Filter searchFilter(SearchContactRequest request) {
+        String phoneExact = normalizedPhone("phoneExact", request.getPhoneExact());
+        String phonePrefix = normalizedPhone("phonePrefix", request.getPhonePrefix());
+        String emailDomain = Objects.nonNull(request.getEmailDomain())
+                ? contactNormalizer.email(request.getEmailDomain().strip().replaceFirst("^@", ""))
+                : null;
+        if (Objects.nonNull(request.getEmailDomain()) && Objects.isNull(emailDomain)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "emailDomain must not be blank");
+        }
+        String emailExact = contactNormalizer.email(request.getEmailExact());
+        if (Objects.nonNull(request.getEmailExact()) && Objects.isNull(emailExact)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "emailExact must not be blank");
+        }
+
+        return new ContactRepositoryCustom.Filter(request.getName(), request.getEmail(), request.getPhone(),
+                phoneExact, phonePrefix, emailExact, emailDomain);
     }
-}
 
+    private String normalizedPhone(String parameter, String phone) {
+        String normalized = contactNormalizer.phone(phone);
+        if (Objects.nonNull(phone) && Objects.isNull(normalized)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, parameter + " must contain digits");
+        }
+        return normalized;
+    }
+}
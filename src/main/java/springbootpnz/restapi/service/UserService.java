@@ -1,16 +1,20 @@
 package springbootpnz.restapi.service;
 
-import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
+import springbootpnz.restapi.entity.Session;
 import springbootpnz.restapi.entity.User;
 import springbootpnz.restapi.model.RegisterUserRequest;
 import springbootpnz.restapi.model.UpdateUserRequest;
 import springbootpnz.restapi.model.UserResponse;
+import springbootpnz.restapi.repository.SessionRepository;
 import springbootpnz.restapi.repository.UserRepository;
-import springbootpnz.restapi.security.BCrypt;
+import springbootpnz.restapi.security.PasswordHasher;
+import springbootpnz.restapi.security.SignedTokens;
+import springbootpnz.restapi.security.TokenCache;
 
 import java.util.Objects;
 
@@ -23,8 +27,26 @@ public class UserService {
     @Autowired
     private ValidationService validationService;
 
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private TokenCache tokenCache;
+
+    @Autowired
+    private SignedTokens signedTokens;
 
-    @Transactional
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+
+    /**
+     * Not transactional, so no connection is held while the password is hashed; the
+     * insert gets a short transaction of its own.
+     */
     public void registerUser(RegisterUserRequest request) {
 
         validationService.Validate(request);
@@ -36,10 +58,16 @@ public class UserService {
 
         User user = new User();
         user.setUsername(request.getUsername());
-        user.setPassword(BCrypt.hashpw(request.getPassword(), BCrypt.gensalt()));
+        user.setPassword(passwordHasher.hash(request.getPassword()));
         user.setName(request.getName());
 
-        userRepository.save(user);
+        transactionTemplate.executeWithoutResult(status -> {
+            // checked again, someone may have taken the name while the password was hashed
+            if (userRepository.existsById(request.getUsername())) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Username already exists");
+            }
+            userRepository.save(user);
+        });
     }
 
     public UserResponse get(User user) {
@@ -49,21 +77,34 @@ public class UserService {
                 .build();
     }
 
-    @Transactional
+    /**
+     * A new password is hashed before the transaction starts, so no connection is held
+     * while it waits for the hashing pool.
+     */
     public UserResponse update(User user, UpdateUserRequest request) {
         validationService.Validate(request);
-        if (Objects.nonNull(request.getName())) {
-            user.setName(request.getName());
-        }
-        if (Objects.nonNull(request.getPassword())) {
-            user.setPassword(BCrypt.hashpw(request.getPassword(), BCrypt.gensalt()));
-        }
-
-        userRepository.save(user);
+        String password = Objects.nonNull(request.getPassword()) ? passwordHasher.hash(request.getPassword()) : null;
+
+        User current = transactionTemplate.execute(status -> {
+            User updated = userRepository.findById(user.getUsername())
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorized"));
+            if (Objects.nonNull(request.getName())) {
+                updated.setName(request.getName());
+            }
+            if (Objects.nonNull(password)) {
+                updated.setPassword(password);
+                // signed tokens carry no password, so the ones issued before the change are revoked
+                signedTokens.revokeAll(updated.getUsername());
+            }
+
+            userRepository.save(updated);
+            tokenCache.invalidateAfterCommit(sessionRepository.findAllByUser(updated).stream().map(Session::getTokenHash).toList());
+            return updated;
+        });
 
         return UserResponse.builder()
-                .name(user.getName())
-                .username(user.getUsername())
+                .name(current.getName())
+                .username(current.getUsername())
                 .build();
     };
 
@@ -0,0 +1,130 @@
+package springbootpnz.restapi.benchmark;
+
+import jakarta.persistence.criteria.Predicate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import springbootpnz.restapi.RestApiApplication;
+import springbootpnz.restapi.entity.Contact;
+import springbootpnz.restapi.entity.User;
+import springbootpnz.restapi.repository.ContactDoc;
+import springbootpnz.restapi.repository.ContactRepository;
+import springbootpnz.restapi.repository.ContactRepositoryCustom;
+import springbootpnz.restapi.repository.UserRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of one contact search page plus its count, built as a Criteria
+ * specification on every call versus the precomputed JPQL variants, which the service
+ * reads into records. Needs the
+ * database from application.properties; run {@link #main} on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContactSearchQueryBenchmark {
+
+    @Param({"none", "name", "all"})
+    private String filters;
+
+    private ConfigurableApplicationContext context;
+
+    private UserRepository userRepository;
+
+    private ContactRepository contactRepository;
+
+    private User user;
+
+    private String name;
+
+    private String email;
+
+    private String phone;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(RestApiApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.properties.hibernate.show_sql=false");
+        userRepository = context.getBean(UserRepository.class);
+        contactRepository = context.getBean(ContactRepository.class);
+
+        user = new User();
+        user.setUsername("benchmarkUser");
+        user.setName("Benchmark User");
+        user.setPassword("benchmark");
+        userRepository.save(user);
+
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Contact contact = new Contact();
+            contact.setId(String.format("benchmark-%03d", i));
+            contact.setUser(user);
+            contact.setFirstName("First " + i);
+            contact.setLastName("Last " + i);
+            contact.setPhone("0800000" + i);
+            contact.setEmail("contact" + i + "@example.com");
+            contacts.add(contact);
+        }
+        contactRepository.saveAll(contacts);
+
+        name = filters.equals("none") ? null : "First";
+        email = filters.equals("all") ? "example" : null;
+        phone = filters.equals("all") ? "0800" : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        contactRepository.deleteAll(contactRepository.findAll((root, query, builder) -> builder.equal(root.get("user"), user)));
+        userRepository.deleteById("benchmarkUser");
+        context.close();
+    }
+
+    @Benchmark
+    public Page<Contact> criteria() {
+        Specification<Contact> specification = (root, query, builder) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            predicates.add(builder.equal(root.get("user"), user));
+            if (Objects.nonNull(name)) {
+                predicates.add(builder.or(
+                        builder.like(root.get("firstName"), "%" + name + "%"),
+                        builder.like(root.get("lastName"), "%" + name + "%")
+                ));
+            }
+            if (Objects.nonNull(phone)) {
+                predicates.add(builder.like(root.get("phone"), "%" + phone + "%"));
+            }
+            if (Objects.nonNull(email)) {
+                predicates.add(builder.like(root.get("email"), "%" + email + "%"));
+            }
+            return query.where(predicates.toArray(new Predicate[]{})).getRestriction();
+        };
+        return contactRepository.findAll(specification, PageRequest.of(1, 10));
+    }
+
+    @Benchmark
+    public long precompiled() {
+        ContactRepositoryCustom.Filter filter = new ContactRepositoryCustom.Filter(name, email, phone, null, null, null, null);
+        List<ContactDoc> contacts = contactRepository.searchDocs(user.getUsername(), filter, ContactRepositoryCustom.Columns.ALL, Sort.unsorted(), null, 10, 10);
+        return contacts.size() + contactRepository.searchCount(user.getUsername(), filter);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ContactSearchQueryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
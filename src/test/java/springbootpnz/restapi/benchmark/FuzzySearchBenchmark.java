@@ -0,0 +1,67 @@
+package springbootpnz.restapi.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import springbootpnz.restapi.repository.ContactDoc;
+import springbootpnz.restapi.search.ContactIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a ranked fuzzy name search over one user's in-memory contact index with
+ * a million synthetic contacts. Run {@link #main} on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FuzzySearchBenchmark {
+
+    private static final String[] FIRST_NAMES = {
+            "John", "Jonathan", "Alice", "Alicia", "Robert", "Roberta", "Michael", "Michelle", "Sarah", "Sara",
+            "David", "Daniel", "Emily", "Emma", "James", "Jameson", "Olivia", "Oliver", "Sophia", "Stephen"
+    };
+
+    private static final String[] LAST_NAMES = {
+            "Smith", "Smyth", "Johnson", "Jonson", "Williams", "Brown", "Jones", "Miller", "Davis", "Garcia",
+            "Rodriguez", "Wilson", "Martinez", "Anderson", "Taylor", "Thomas", "Moore", "Jackson", "Martin", "Lee"
+    };
+
+    @Param({"1000000"})
+    private int contacts;
+
+    @Param({"Jhon", "Smiht", "Alcie Jonsen", "Xzqv"})
+    private String term;
+
+    private ContactIndex index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<ContactDoc> docs = new ArrayList<>(contacts);
+        for (int i = 0; i < contacts; i++) {
+            // a numeric suffix keeps the vocabulary large, like real address books
+            String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + (random.nextInt(4) == 0 ? "" + random.nextInt(1000) : "");
+            String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)] + random.nextInt(10_000);
+            docs.add(new ContactDoc(String.format("%08d", i), first, last,
+                    "08" + random.nextInt(1_000_000_000), first.toLowerCase() + i + "@example.com"));
+        }
+        index = new ContactIndex(docs);
+    }
+
+    @Benchmark
+    public List<ContactIndex.Match> fuzzy() {
+        return index.fuzzy(term, 10, 0.5);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FuzzySearchBenchmark.class.getSimpleName()).build()).run();
+    }
+}
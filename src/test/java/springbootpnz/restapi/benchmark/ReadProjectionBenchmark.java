@@ -0,0 +1,196 @@
+package springbootpnz.restapi.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import springbootpnz.restapi.RestApiApplication;
+import springbootpnz.restapi.entity.Address;
+import springbootpnz.restapi.entity.Contact;
+import springbootpnz.restapi.entity.User;
+import springbootpnz.restapi.model.AddressResponse;
+import springbootpnz.restapi.model.ContactResponse;
+import springbootpnz.restapi.repository.AddressRepository;
+import springbootpnz.restapi.repository.ContactDoc;
+import springbootpnz.restapi.repository.ContactRepository;
+import springbootpnz.restapi.repository.ContactRepositoryCustom;
+import springbootpnz.restapi.repository.UserRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths in a read-only transaction, loading managed entities and copying them
+ * into responses versus projecting the columns straight into records: one contact,
+ * a search page of 50, also with only the names read, and the 20 addresses of a contact. {@link #main} adds the GC
+ * profiler, whose gc.alloc.rate.norm is the bytes allocated per call. Needs the
+ * database from application.properties; run {@link #main} on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadProjectionBenchmark {
+
+    private static final ContactRepositoryCustom.Filter NO_FILTER = new ContactRepositoryCustom.Filter(null, null, null, null, null, null, null);
+
+    private ConfigurableApplicationContext context;
+
+    private UserRepository userRepository;
+
+    private ContactRepository contactRepository;
+
+    private AddressRepository addressRepository;
+
+    private TransactionTemplate readOnly;
+
+    private User user;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(RestApiApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.jpa.properties.hibernate.show_sql=false");
+        userRepository = context.getBean(UserRepository.class);
+        contactRepository = context.getBean(ContactRepository.class);
+        addressRepository = context.getBean(AddressRepository.class);
+        readOnly = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        readOnly.setReadOnly(true);
+
+        user = new User();
+        user.setUsername("benchmarkUser");
+        user.setName("Benchmark User");
+        user.setPassword("benchmark");
+        userRepository.save(user);
+
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Contact contact = new Contact();
+            contact.setId(String.format("benchmark-%03d", i));
+            contact.setUser(user);
+            contact.setFirstName("First " + i);
+            contact.setLastName("Last " + i);
+            contact.setPhone("0800000" + i);
+            contact.setEmail("contact" + i + "@example.com");
+            contacts.add(contact);
+        }
+        contactRepository.saveAll(contacts);
+
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Address address = new Address();
+            address.setId(String.format("benchmark-address-%02d", i));
+            address.setContact(contacts.get(0));
+            address.setStreet("Street " + i);
+            address.setCity("Bogor");
+            address.setProvince("West Java");
+            address.setCountry("Indonesia");
+            address.setPostalCode("16" + i);
+            addresses.add(address);
+        }
+        addressRepository.saveAll(addresses);
+    }
+
+    @TearDown
+    public void tearDown() {
+        readOnly.setReadOnly(false);
+        readOnly.executeWithoutResult(status -> {
+            addressRepository.deleteAll(addressRepository.findAllByContact(contactRepository.findById("benchmark-000").orElseThrow()));
+            contactRepository.deleteAll(contactRepository.findAll((root, query, builder) -> builder.equal(root.get("user"), user)));
+        });
+        userRepository.deleteById("benchmarkUser");
+        context.close();
+    }
+
+    @Benchmark
+    public ContactResponse getEntity() {
+        return readOnly.execute(status -> toContactResponse(contactRepository.findFirstByUserAndId(user, "benchmark-042").orElseThrow()));
+    }
+
+    @Benchmark
+    public ContactResponse getRecord() {
+        return readOnly.execute(status -> toContactResponse(contactRepository.findDoc(user.getUsername(), "benchmark-042").orElseThrow()));
+    }
+
+    @Benchmark
+    public List<ContactResponse> searchEntity() {
+        return readOnly.execute(status -> contactRepository.findBy(
+                        (Specification<Contact>) (root, query, builder) -> builder.equal(root.get("user"), user),
+                        query -> query.sortBy(Sort.by("id")).limit(50).all())
+                .stream().map(ReadProjectionBenchmark::toContactResponse).toList());
+    }
+
+    @Benchmark
+    public List<ContactResponse> searchRecord() {
+        return readOnly.execute(status -> contactRepository.searchDocs(user.getUsername(), NO_FILTER, ContactRepositoryCustom.Columns.ALL, Sort.unsorted(), null, 0, 50)
+                .stream().map(ReadProjectionBenchmark::toContactResponse).toList());
+    }
+
+    @Benchmark
+    public List<ContactResponse> searchNames() {
+        return readOnly.execute(status -> contactRepository.searchDocs(user.getUsername(), NO_FILTER, ContactRepositoryCustom.Columns.NAMES, Sort.unsorted(), null, 0, 50)
+                .stream().map(ReadProjectionBenchmark::toContactResponse).toList());
+    }
+
+    @Benchmark
+    public List<AddressResponse> addressesEntity() {
+        return readOnly.execute(status -> addressRepository.findAllByContact(contactRepository.findFirstByUserAndId(user, "benchmark-000").orElseThrow())
+                .stream().map(ReadProjectionBenchmark::toAddressResponse).toList());
+    }
+
+    @Benchmark
+    public List<AddressResponse> addressesRecord() {
+        return readOnly.execute(status -> contactRepository.existsByIdAndUserUsername("benchmark-000", user.getUsername())
+                ? addressRepository.findResponses("benchmark-000", null)
+                : List.of());
+    }
+
+    private static ContactResponse toContactResponse(Contact contact) {
+        return ContactResponse.builder()
+                .id(contact.getId())
+                .firstName(contact.getFirstName())
+                .lastName(contact.getLastName())
+                .phone(contact.getPhone())
+                .email(contact.getEmail())
+                .build();
+    }
+
+    private static ContactResponse toContactResponse(ContactDoc doc) {
+        return ContactResponse.builder()
+                .id(doc.id())
+                .firstName(doc.firstName())
+                .lastName(doc.lastName())
+                .phone(doc.phone())
+                .email(doc.email())
+                .build();
+    }
+
+    private static AddressResponse toAddressResponse(Address address) {
+        return AddressResponse.builder()
+                .id(address.getId())
+                .street(address.getStreet())
+                .city(address.getCity())
+                .province(address.getProvince())
+                .country(address.getCountry())
+                .postalCode(address.getPostalCode())
+                .build();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ReadProjectionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,105 @@
+package springbootpnz.restapi.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import springbootpnz.restapi.RestApiApplication;
+import springbootpnz.restapi.entity.Session;
+import springbootpnz.restapi.entity.User;
+import springbootpnz.restapi.repository.SessionRepository;
+import springbootpnz.restapi.repository.UserRepository;
+import springbootpnz.restapi.security.SignedTokens;
+import springbootpnz.restapi.security.TokenCache;
+import springbootpnz.restapi.security.TokenHash;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of resolving X-API-TOKEN per request: a sessions table lookup, the same lookup
+ * through the token cache, and a signed token verification. Needs the database from
+ * application.properties; run {@link #main} on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenAuthBenchmark {
+
+    private ConfigurableApplicationContext context;
+
+    private UserRepository userRepository;
+
+    private SessionRepository sessionRepository;
+
+    private TokenCache tokenCache;
+
+    private SignedTokens signedTokens;
+
+    private String sessionToken;
+
+    private String signedToken;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(RestApiApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--spring.jpa.properties.hibernate.show_sql=false",
+                        "--restapi.auth.token-mode=signed",
+                        "--restapi.auth.signing-keys=bench:YmVuY2hiZW5jaGJlbmNoYmVuY2hiZW5jaGJlbmNoYmU="
+                );
+        userRepository = context.getBean(UserRepository.class);
+        sessionRepository = context.getBean(SessionRepository.class);
+        tokenCache = context.getBean(TokenCache.class);
+        signedTokens = context.getBean(SignedTokens.class);
+
+        User user = new User();
+        user.setUsername("benchmarkUser");
+        user.setName("Benchmark User");
+        user.setPassword("benchmark");
+        userRepository.save(user);
+
+        long now = System.currentTimeMillis();
+        sessionToken = UUID.randomUUID().toString();
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash(sessionToken));
+        session.setUser(user);
+        session.setCreatedAt(now);
+        session.setExpiredAt(now + TimeUnit.DAYS.toMillis(1));
+        sessionRepository.save(session);
+
+        signedToken = signedTokens.issue(user, now, now + TimeUnit.DAYS.toMillis(1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        userRepository.deleteById("benchmarkUser");
+        context.close();
+    }
+
+    @Benchmark
+    public Session database() {
+        return sessionRepository.findById(TokenHash.hash(sessionToken)).orElse(null);
+    }
+
+    @Benchmark
+    public Session cached() {
+        return tokenCache.get(TokenHash.hash(sessionToken), key -> sessionRepository.findById(key).orElse(null));
+    }
+
+    @Benchmark
+    public Session signed() {
+        return signedTokens.verify(signedToken);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TokenAuthBenchmark.class.getSimpleName()).build()).run();
+    }
+}
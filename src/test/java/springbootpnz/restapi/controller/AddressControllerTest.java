@@ -11,6 +11,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import springbootpnz.restapi.entity.Address;
 import springbootpnz.restapi.entity.Contact;
+import springbootpnz.restapi.entity.Session;
 import springbootpnz.restapi.entity.User;
 import springbootpnz.restapi.model.AddressResponse;
 import springbootpnz.restapi.model.CreateAddressRequest;
@@ -18,10 +19,13 @@ import springbootpnz.restapi.model.UpdateAddressRequest;
 import springbootpnz.restapi.model.WebResponse;
 import springbootpnz.restapi.repository.AddressRepository;
 import springbootpnz.restapi.repository.ContactRepository;
+import springbootpnz.restapi.repository.SessionRepository;
 import springbootpnz.restapi.repository.UserRepository;
 import springbootpnz.restapi.security.BCrypt;
+import springbootpnz.restapi.security.TokenHash;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -42,6 +46,9 @@ class AddressControllerTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private SessionRepository sessionRepository;
+
     @Autowired
     private ContactRepository contactRepository;
 
@@ -58,10 +65,15 @@ class AddressControllerTest {
         user.setUsername("johndoe");
         user.setName("John Doe");
         user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
-        user.setToken("testUser");
-        user.setTokenExpiredAt(System.currentTimeMillis() + 10000000L);
         userRepository.save(user);
 
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testUser"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() + 10000000L);
+        sessionRepository.save(session);
+
         Contact contact = new Contact();
         contact.setId("testContact");
         contact.setFirstName("test1");
@@ -389,4 +401,42 @@ class AddressControllerTest {
 
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGetListAddressWithFields() throws Exception {
+        mockMvc.perform(
+                get("/api/contacts/testContact/addresses")
+                        .queryParam("fields", "city,id")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<List<Map<String, Object>>> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+            });
+            assertNull(response.getErrors());
+
+            assertEquals(1, response.getData().size());
+            assertEquals(List.of("id", "city"), List.copyOf(response.getData().get(0).keySet()));
+        });
+
+        mockMvc.perform(
+                get("/api/contacts/salahContact/addresses")
+                        .queryParam("fields", "city")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isNotFound()
+        );
+
+        mockMvc.perform(
+                get("/api/contacts/testContact/addresses")
+                        .queryParam("fields", "contact")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isBadRequest()
+        );
+    }
+}
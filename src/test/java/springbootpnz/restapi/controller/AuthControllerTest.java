@@ -2,20 +2,37 @@ package springbootpnz.restapi.controller;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.MediaType;
+import org.springframework.orm.jpa.EntityManagerHolder;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import springbootpnz.restapi.entity.Session;
 import springbootpnz.restapi.entity.User;
 import springbootpnz.restapi.model.LoginUserRequest;
 import springbootpnz.restapi.model.TokenResponse;
 import springbootpnz.restapi.model.WebResponse;
+import springbootpnz.restapi.repository.SessionRepository;
 import springbootpnz.restapi.repository.UserRepository;
 import springbootpnz.restapi.security.BCrypt;
+import springbootpnz.restapi.security.PasswordHasher;
+import springbootpnz.restapi.security.SessionExtender;
+import springbootpnz.restapi.security.SessionSweeper;
+import springbootpnz.restapi.security.TokenHash;
+
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.reset;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -30,10 +47,25 @@ class AuthControllerTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private SessionRepository sessionRepository;
+
 
     @Autowired
     private ObjectMapper objectMapper;
 
+    @SpyBean
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private SessionExtender sessionExtender;
+
+    @Autowired
+    private SessionSweeper sessionSweeper;
+
 
 
     @Test
@@ -78,8 +110,72 @@ class AuthControllerTest {
 
 
 
+    @Test
+    void testLoginThrottledPerUser() throws Exception {
+        LoginUserRequest request= new LoginUserRequest();
+        request.setUsername("throttledUser");
+        request.setPassword("password");
+        for (int i = 0; i < 10; i++) {
+            mockMvc.perform(
+                    post("/api/users/login")
+                            .accept(MediaType.APPLICATION_JSON_VALUE)
+                            .contentType(MediaType.APPLICATION_JSON_VALUE)
+                            .content(objectMapper.writeValueAsString(request))
+            ).andExpectAll(
+                    status().isUnauthorized()
+            );
+        }
+
+        mockMvc.perform(
+                post("/api/users/login")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(request))
+        ).andExpectAll(
+                status().isTooManyRequests()
+        ).andDo(result -> {
+            WebResponse<String> response =  objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<WebResponse<String>>() {});
+
+            assertNotNull(response.getErrors());
+        });
+    }
+
+    @Test
+    void testLoginThrottledPerUserLeavesAddressUncounted() throws Exception {
+        // well past the 50 attempts an address may make, but only the first 10 get through
+        for (int i = 0; i < 60; i++) {
+            loginFrom("throttledHere", "10.0.0.7");
+        }
+
+        loginFrom("someoneElse", "10.0.0.7").andExpectAll(
+                status().isUnauthorized()
+        );
+    }
+
+    private ResultActions loginFrom(String username, String address) throws Exception {
+        LoginUserRequest request = new LoginUserRequest();
+        request.setUsername(username);
+        request.setPassword("password");
+        return mockMvc.perform(
+                post("/api/users/login")
+                        .with(servletRequest -> {
+                            servletRequest.setRemoteAddr(address);
+                            return servletRequest;
+                        })
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(request))
+        );
+    }
+
     @Test
     void testLoginSuccess() throws Exception {
+        User user = new User();
+        user.setName("JhonDoe");
+        user.setUsername("testUser");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
+        userRepository.save(user);
+
         LoginUserRequest request= new LoginUserRequest();
         request.setUsername("testUser");
         request.setPassword("password");
@@ -98,15 +194,172 @@ class AuthControllerTest {
             assertNotNull( response.getData().getTokenExpiresIn());
 
 
-            User userR = userRepository.findById(request.getUsername()).orElse(null);
+            Session sessionR = sessionRepository.findById(TokenHash.hash(response.getData().getToken())).orElse(null);
 
-            assertNotNull(userR);
-            assertEquals(response.getData().getToken(), userR.getToken());
-            assertEquals(response.getData().getTokenExpiresIn(), userR.getTokenExpiredAt());
+            assertNotNull(sessionR);
+            assertEquals(request.getUsername(), sessionR.getUser().getUsername());
+            assertEquals(response.getData().getTokenExpiresIn(), sessionR.getExpiredAt());
 
         });
     }
 
+    @Test
+    void testLoginHoldsNoConnectionWhileHashing() throws Exception {
+        User user = new User();
+        user.setName("JhonDoe");
+        user.setUsername("testUser");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
+        userRepository.save(user);
+
+        AtomicBoolean connected = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            EntityManagerHolder holder = (EntityManagerHolder) TransactionSynchronizationManager.getResource(entityManagerFactory);
+            connected.set(TransactionSynchronizationManager.isActualTransactionActive() || (holder != null
+                    && holder.getEntityManager().unwrap(SessionImplementor.class).getJdbcCoordinator().getLogicalConnection().isPhysicallyConnected()));
+            return invocation.callRealMethod();
+        }).when(passwordHasher).check(anyString(), anyString());
+
+        LoginUserRequest request = new LoginUserRequest();
+        request.setUsername("testUser");
+        request.setPassword("password");
+        try {
+            mockMvc.perform(
+                    post("/api/users/login")
+                            .accept(MediaType.APPLICATION_JSON_VALUE)
+                            .contentType(MediaType.APPLICATION_JSON_VALUE)
+                            .content(objectMapper.writeValueAsString(request))
+            ).andExpectAll(
+                    status().isOk()
+            );
+        } finally {
+            reset(passwordHasher);
+        }
+        assertFalse(connected.get());
+    }
+
+    @Test
+    void testLoginRehashesOutdatedCost() throws Exception {
+        User user = new User();
+        user.setName("JhonDoe");
+        user.setUsername("testUser");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt(4)));
+        userRepository.save(user);
+
+        LoginUserRequest request = new LoginUserRequest();
+        request.setUsername("testUser");
+        request.setPassword("password");
+        mockMvc.perform(
+                post("/api/users/login")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(request))
+        ).andExpectAll(
+                status().isOk()
+        );
+
+        String expectedPrefix = String.format("$2a$%02d$", passwordHasher.getLogRounds());
+        String password = null;
+        for (int i = 0; i < 100; i++) {
+            password = userRepository.findById("testUser").orElseThrow().getPassword();
+            if (password.startsWith(expectedPrefix)) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        assertTrue(password.startsWith(expectedPrefix));
+        assertTrue(BCrypt.checkpw("password", password));
+    }
+
+    @Test
+    void testStrongerCostIsNotRehashed() {
+        int logRounds = passwordHasher.getLogRounds();
+
+        assertTrue(passwordHasher.needsRehash(BCrypt.hashpw("password", BCrypt.gensalt(logRounds - 1))));
+        assertFalse(passwordHasher.needsRehash(BCrypt.hashpw("password", BCrypt.gensalt(logRounds))));
+        assertFalse(passwordHasher.needsRehash(BCrypt.hashpw("password", BCrypt.gensalt(logRounds + 1))));
+    }
+
+    @Test
+    void testSessionNearExpiryIsExtended() throws Exception {
+        User user = new User();
+        user.setName("JhonDoe");
+        user.setUsername("testUser");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
+        userRepository.save(user);
+
+        long now = System.currentTimeMillis();
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("nearExpiry"));
+        session.setUser(user);
+        session.setCreatedAt(now);
+        session.setExpiredAt(now + 60_000L);
+        sessionRepository.save(session);
+
+        mockMvc.perform(
+                get("/api/users")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "nearExpiry")
+        ).andExpectAll(
+                status().isOk()
+        );
+        sessionExtender.flush();
+
+        Session sessionDb = sessionRepository.findById(TokenHash.hash("nearExpiry")).orElseThrow();
+        assertTrue(sessionDb.getExpiredAt() > now + 24 * 60 * 60 * 1000L);
+    }
+
+    @Test
+    void testSessionFarFromExpiryIsNotWritten() throws Exception {
+        User user = new User();
+        user.setName("JhonDoe");
+        user.setUsername("testUser");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
+        userRepository.save(user);
+
+        long expiredAt = System.currentTimeMillis() + 5 * 24 * 60 * 60 * 1000L;
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("farFromExpiry"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(expiredAt);
+        sessionRepository.save(session);
+
+        mockMvc.perform(
+                get("/api/users")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "farFromExpiry")
+        ).andExpectAll(
+                status().isOk()
+        );
+        sessionExtender.flush();
+
+        Session sessionDb = sessionRepository.findById(TokenHash.hash("farFromExpiry")).orElseThrow();
+        assertEquals(expiredAt, sessionDb.getExpiredAt());
+    }
+
+    @Test
+    void testSweepDeletesOnlyExpiredSessions() {
+        User user = new User();
+        user.setName("JhonDoe");
+        user.setUsername("testUser");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
+        userRepository.save(user);
+
+        long now = System.currentTimeMillis();
+        for (String token : new String[]{"expired", "live"}) {
+            Session session = new Session();
+            session.setTokenHash(TokenHash.hash(token));
+            session.setUser(user);
+            session.setCreatedAt(now);
+            session.setExpiredAt(token.equals("expired") ? now - 1000L : now + 60_000L);
+            sessionRepository.save(session);
+        }
+
+        assertTrue(sessionSweeper.sweep() >= 1);
+        assertFalse(sessionRepository.existsById(TokenHash.hash("expired")));
+        assertTrue(sessionRepository.existsById(TokenHash.hash("live")));
+    }
+
     @Test
     void testLogoutFailed() throws Exception{
         mockMvc.perform(
@@ -126,15 +379,20 @@ class AuthControllerTest {
         user.setName("JhonDoe");
         user.setUsername("testUser");
         user.setPassword(BCrypt.hashpw("testPassword", BCrypt.gensalt()));
-        user.setToken("testToken");
-        user.setTokenExpiredAt(System.currentTimeMillis() + 10000000L);
 
         userRepository.save(user);
 
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testToken"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() + 10000000L);
+        sessionRepository.save(session);
+
         mockMvc.perform(
                 delete("/api/users/logout")
                 .accept(MediaType.APPLICATION_JSON_VALUE)
-                        .header("X-API-TOKEN", user.getToken())
+                        .header("X-API-TOKEN", "testToken")
         ).andExpectAll(
                 status().isOk()
         ).andDo(result -> {
@@ -143,12 +401,113 @@ class AuthControllerTest {
             assertNull(response.getErrors());
             assertEquals(response.getData(), "OK");
 
-            User userR = userRepository.findById(user.getUsername()).orElse(null);
-            assertNotNull(userR);
-            assertNull(userR.getToken());
-            assertNull(userR.getTokenExpiredAt());
+            assertFalse(sessionRepository.existsById(TokenHash.hash("testToken")));
+
+        });
+    }
+
+
+    @Test
+    void testLogoutInvalidatesToken() throws Exception {
+        User user = new User();
+        user.setName("JhonDoe");
+        user.setUsername("testUser");
+        user.setPassword(BCrypt.hashpw("testPassword", BCrypt.gensalt()));
+
+        userRepository.save(user);
+
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testToken"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() + 10000000L);
+        sessionRepository.save(session);
+
+        mockMvc.perform(
+                get("/api/users")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testToken")
+        ).andExpectAll(
+                status().isOk()
+        );
+
+        mockMvc.perform(
+                delete("/api/users/logout")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testToken")
+        ).andExpectAll(
+                status().isOk()
+        );
 
+        mockMvc.perform(
+                get("/api/users")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testToken")
+        ).andExpectAll(
+                status().isUnauthorized()
+        ).andDo(result -> {
+            WebResponse<String> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<WebResponse<String>>() {});
+            assertNotNull(response.getErrors());
         });
     }
 
+    @Test
+    void testLoginKeepsConcurrentSessions() throws Exception {
+        User user = new User();
+        user.setName("JhonDoe");
+        user.setUsername("testUser");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
+        userRepository.save(user);
+
+        LoginUserRequest request = new LoginUserRequest();
+        request.setUsername("testUser");
+        request.setPassword("password");
+
+        String[] tokens = new String[2];
+        for (int i = 0; i < tokens.length; i++) {
+            request.setDevice("device-" + i);
+            int index = i;
+            mockMvc.perform(
+                    post("/api/users/login")
+                            .accept(MediaType.APPLICATION_JSON_VALUE)
+                            .contentType(MediaType.APPLICATION_JSON_VALUE)
+                            .content(objectMapper.writeValueAsString(request))
+            ).andExpectAll(
+                    status().isOk()
+            ).andDo(result -> {
+                WebResponse<TokenResponse> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<WebResponse<TokenResponse>>() {});
+                tokens[index] = response.getData().getToken();
+            });
+        }
+
+        for (String token : tokens) {
+            mockMvc.perform(
+                    get("/api/users")
+                            .accept(MediaType.APPLICATION_JSON_VALUE)
+                            .header("X-API-TOKEN", token)
+            ).andExpectAll(
+                    status().isOk()
+            );
+        }
+
+        mockMvc.perform(
+                delete("/api/users/sessions")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", tokens[0])
+        ).andExpectAll(
+                status().isOk()
+        );
+
+        for (String token : tokens) {
+            mockMvc.perform(
+                    get("/api/users")
+                            .accept(MediaType.APPLICATION_JSON_VALUE)
+                            .header("X-API-TOKEN", token)
+            ).andExpectAll(
+                    status().isUnauthorized()
+            );
+            assertFalse(sessionRepository.existsById(TokenHash.hash(token)));
+        }
+    }
+
 }
\ No newline at end of file
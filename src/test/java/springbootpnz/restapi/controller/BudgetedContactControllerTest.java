@@ -0,0 +1,139 @@
+package springbootpnz.restapi.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import springbootpnz.restapi.entity.Contact;
+import springbootpnz.restapi.entity.Session;
+import springbootpnz.restapi.entity.User;
+import springbootpnz.restapi.model.ContactResponse;
+import springbootpnz.restapi.model.TotalType;
+import springbootpnz.restapi.model.WebResponse;
+import springbootpnz.restapi.repository.AddressRepository;
+import springbootpnz.restapi.repository.ContactRepository;
+import springbootpnz.restapi.repository.SessionRepository;
+import springbootpnz.restapi.repository.UserRepository;
+import springbootpnz.restapi.security.BCrypt;
+import springbootpnz.restapi.security.TokenHash;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Searches running out of a short budget. A statement is made slow by holding a lock on
+ * the table it reads from another connection, so it waits until it is cancelled.
+ */
+@SpringBootTest(properties = "restapi.contacts.search-budget=200ms")
+@AutoConfigureMockMvc
+class BudgetedContactControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private AddressRepository addressRepository;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @BeforeEach
+    void setUp() {
+        addressRepository.deleteAll();
+        contactRepository.deleteAll();
+        userRepository.deleteAll();
+
+        User user = new User();
+        user.setUsername("johndoe");
+        user.setName("John Doe");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
+        userRepository.save(user);
+
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testUser"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() + 10000000L);
+        sessionRepository.save(session);
+
+        for (int i = 0; i < 2; i++) {
+            Contact contact = new Contact();
+            contact.setId("contact-" + i);
+            contact.setUser(user);
+            contact.setFirstName("Test " + i);
+            contactRepository.save(contact);
+        }
+    }
+
+    private WebResponse<List<ContactResponse>> search(String total, String expand) throws Exception {
+        MockHttpServletRequestBuilder request = get("/api/contacts")
+                .queryParam("total", total)
+                .accept(MediaType.APPLICATION_JSON_VALUE)
+                .header("X-API-TOKEN", "testUser");
+        if (expand != null) {
+            request.queryParam("expand", expand);
+        }
+        return objectMapper.readValue(mockMvc.perform(
+                request
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<WebResponse<List<ContactResponse>>>() {});
+    }
+
+    private WebResponse<List<ContactResponse>> searchWhileLocked(String table, String total, String expand) throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            try {
+                statement.execute("LOCK TABLE " + table + " IN ACCESS EXCLUSIVE MODE");
+                return search(total, expand);
+            } finally {
+                connection.rollback();
+            }
+        }
+    }
+
+    @Test
+    void testSearchOverBudgetIsPartial() throws Exception {
+        // the page was read, embedding its addresses ran out of time
+        WebResponse<List<ContactResponse>> response = searchWhileLocked("addresses", "exact", "addresses");
+        assertNull(response.getErrors());
+        assertTrue(response.getPartial());
+        assertEquals(2, response.getData().size());
+        assertNull(response.getPaging().getTotalPage());
+        assertEquals(TotalType.NONE, response.getPaging().getTotalType());
+
+        // nothing could be read
+        response = searchWhileLocked("contacts", "none", null);
+        assertTrue(response.getPartial());
+        assertTrue(response.getData().isEmpty());
+
+        response = search("exact", null);
+        assertNull(response.getPartial());
+        assertEquals(2, response.getData().size());
+        assertEquals(1, response.getPaging().getTotalPage());
+    }
+}
@@ -0,0 +1,157 @@
+package springbootpnz.restapi.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.MediaType;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import springbootpnz.restapi.entity.Contact;
+import springbootpnz.restapi.entity.Session;
+import springbootpnz.restapi.entity.User;
+import springbootpnz.restapi.model.ContactResponse;
+import springbootpnz.restapi.model.CreateContactRequest;
+import springbootpnz.restapi.model.WebResponse;
+import springbootpnz.restapi.repository.AddressRepository;
+import springbootpnz.restapi.repository.ContactRepository;
+import springbootpnz.restapi.repository.SessionRepository;
+import springbootpnz.restapi.repository.UserRepository;
+import springbootpnz.restapi.search.ContactSearchCache;
+import springbootpnz.restapi.security.BCrypt;
+import springbootpnz.restapi.security.TokenHash;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.reset;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = "restapi.contacts.search-cache.enabled=true")
+@AutoConfigureMockMvc
+class CachedContactControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private AddressRepository addressRepository;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @SpyBean
+    private ContactSearchCache contactSearchCache;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @BeforeEach
+    void setUp() {
+        addressRepository.deleteAll();
+        contactRepository.deleteAll();
+        userRepository.deleteAll();
+        contactSearchCache.invalidateAll();
+
+        User user = new User();
+        user.setUsername("johndoe");
+        user.setName("John Doe");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
+        userRepository.save(user);
+
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testUser"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() + 10000000L);
+        sessionRepository.save(session);
+    }
+
+    private List<String> searchLastNames(String sort) throws Exception {
+        WebResponse<List<ContactResponse>> response = objectMapper.readValue(mockMvc.perform(
+                get("/api/contacts")
+                        .queryParam("sort", sort)
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<WebResponse<List<ContactResponse>>>() {});
+        assertNull(response.getErrors());
+        return response.getData().stream().map(ContactResponse::getLastName).toList();
+    }
+
+    @Test
+    void testSearchCacheDroppedOnWrite() throws Exception {
+        User user = userRepository.findById("johndoe").orElse(null);
+
+        Contact contact = new Contact();
+        contact.setId(UUID.randomUUID().toString());
+        contact.setUser(user);
+        contact.setFirstName("Carol");
+        contact.setLastName("Adams");
+        contactRepository.save(contact);
+        assertEquals(List.of("Adams"), searchLastNames("lastName"));
+
+        // written around the service, so the cached page is still served
+        Contact bypass = new Contact();
+        bypass.setId(UUID.randomUUID().toString());
+        bypass.setUser(user);
+        bypass.setFirstName("Bob");
+        bypass.setLastName("Baker");
+        contactRepository.save(bypass);
+        assertEquals(List.of("Adams"), searchLastNames("lastName"));
+
+        CreateContactRequest request = new CreateContactRequest();
+        request.setFirstName("Alice");
+        request.setLastName("Cole");
+        mockMvc.perform(
+                post("/api/contacts")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request))
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        );
+        assertEquals(List.of("Adams", "Baker", "Cole"), searchLastNames("lastName"));
+    }
+
+    @Test
+    void testSearchCacheLookedUpWithoutConnection() throws Exception {
+        AtomicBoolean connected = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            EntityManagerHolder holder = (EntityManagerHolder) TransactionSynchronizationManager.getResource(entityManagerFactory);
+            connected.set(TransactionSynchronizationManager.isActualTransactionActive() || (holder != null
+                    && holder.getEntityManager().unwrap(SessionImplementor.class).getJdbcCoordinator().getLogicalConnection().isPhysicallyConnected()));
+            return invocation.callRealMethod();
+        }).when(contactSearchCache).get(anyString(), any(), any(), any(), anyBoolean(), any(), any());
+
+        try {
+            assertEquals(List.of(), searchLastNames("lastName"));
+        } finally {
+            reset(contactSearchCache);
+        }
+        assertFalse(connected.get());
+    }
+}
@@ -2,24 +2,40 @@ package springbootpnz.restapi.controller;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import springbootpnz.restapi.entity.Address;
 import springbootpnz.restapi.entity.Contact;
+import springbootpnz.restapi.entity.Session;
 import springbootpnz.restapi.entity.User;
+import springbootpnz.restapi.model.AddressResponse;
+import springbootpnz.restapi.model.ContactMatchResponse;
 import springbootpnz.restapi.model.ContactResponse;
+import springbootpnz.restapi.model.TotalType;
 import springbootpnz.restapi.model.CreateContactRequest;
 import springbootpnz.restapi.model.UpdateContactRequest;
 import springbootpnz.restapi.model.WebResponse;
+import springbootpnz.restapi.repository.AddressRepository;
 import springbootpnz.restapi.repository.ContactRepository;
+import springbootpnz.restapi.repository.SessionRepository;
 import springbootpnz.restapi.repository.UserRepository;
+import springbootpnz.restapi.search.ContactSearchCache;
+import springbootpnz.restapi.search.SearchCountExecutor;
 import springbootpnz.restapi.security.BCrypt;
+import springbootpnz.restapi.security.TokenHash;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -37,25 +53,88 @@ class ContactControllerTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private SessionRepository sessionRepository;
+
     @Autowired
     private ContactRepository contactRepository;
 
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private AddressRepository addressRepository;
+
+    @Autowired
+    private ContactSearchCache contactSearchCache;
+
+    @Autowired
+    private SearchCountExecutor searchCountExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @BeforeEach
     void setUp() {
+        addressRepository.deleteAll();
         contactRepository.deleteAll();
         userRepository.deleteAll();
+        contactSearchCache.invalidateAll();
 
 
         User user = new User();
         user.setUsername("johndoe");
         user.setName("John Doe");
         user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
-        user.setToken("testUser");
-        user.setTokenExpiredAt(System.currentTimeMillis() + 10000000L);
         userRepository.save(user);
+
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testUser"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() + 10000000L);
+        sessionRepository.save(session);
+    }
+
+    private static final TypeReference<WebResponse<List<ContactResponse>>> CONTACTS = new TypeReference<>() {};
+
+    private static final TypeReference<WebResponse<List<ContactMatchResponse>>> MATCHES = new TypeReference<>() {};
+
+    private static final TypeReference<WebResponse<List<Map<String, Object>>>> FIELDS = new TypeReference<>() {};
+
+    // saved for johndoe straight through the repository, a random id when none is given
+    private Contact saveContact(String id, String firstName, String lastName, String email, String phone) {
+        Contact contact = new Contact();
+        contact.setId(id == null ? UUID.randomUUID().toString() : id);
+        contact.setUser(userRepository.findById("johndoe").orElse(null));
+        contact.setFirstName(firstName);
+        contact.setLastName(lastName);
+        contact.setEmail(email);
+        contact.setPhone(phone);
+        return contactRepository.save(contact);
+    }
+
+    // the params are query parameter names and values in turn
+    private <T> WebResponse<T> search(String path, TypeReference<WebResponse<T>> type, String... params) throws Exception {
+        MockHttpServletRequestBuilder request = get(path)
+                .accept(MediaType.APPLICATION_JSON_VALUE)
+                .header("X-API-TOKEN", "testUser");
+        for (int i = 0; i < params.length; i += 2) {
+            request.queryParam(params[i], params[i + 1]);
+        }
+        WebResponse<T> response = objectMapper.readValue(mockMvc.perform(request).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), type);
+        assertNull(response.getErrors());
+        return response;
+    }
+
+    private static List<String> firstNames(WebResponse<List<ContactResponse>> response) {
+        return response.getData().stream().map(ContactResponse::getFirstName).toList();
+    }
+
+    private static List<String> lastNames(WebResponse<List<ContactResponse>> response) {
+        return response.getData().stream().map(ContactResponse::getLastName).toList();
     }
 
 
@@ -280,8 +359,6 @@ class ContactControllerTest {
         userNew.setName("Elon Musk");
         userNew.setUsername("elonMusk");
         userNew.setPassword(BCrypt.hashpw("elonMusk", BCrypt.gensalt()));
-        userNew.setToken("spaceX");
-        userNew.setTokenExpiredAt(System.currentTimeMillis()+ 1000000000L);
 
 
         UpdateContactRequest request = new UpdateContactRequest();
@@ -488,5 +565,356 @@ class ContactControllerTest {
             assertEquals(10, contactResponses.getPaging().getSize());
         });
     }
+    @Test
+    void testSearchUsingCursor() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            saveContact(null, "John " + i, "Doe", "john.doe@mail.com", "1122334455");
+        }
+
+        Set<String> seen = new HashSet<>();
+        String cursor = "";
+        int pages = 0;
+        while (cursor != null) {
+            WebResponse<List<ContactResponse>> contactResponses = search("/api/contacts", CONTACTS, "name", "John", "cursor", cursor);
+
+            assertEquals(10, contactResponses.getPaging().getSize());
+            contactResponses.getData().forEach(contact -> assertTrue(seen.add(contact.getId())));
+            cursor = contactResponses.getPaging().getNext();
+            pages++;
+        }
+
+        assertEquals(3, pages);
+        assertEquals(25, seen.size());
+    }
 
-}
\ No newline at end of file
+    @Test
+    void testSearchUsingInvalidCursor() throws Exception {
+        mockMvc.perform(
+                get("/api/contacts")
+                        .queryParam("cursor", "not-a-cursor")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isBadRequest()
+        );
+    }
+
+    @Test
+    void testSearchWithoutTotal() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            saveContact(null, "John " + i, "Doe", "john.doe@mail.com", "1122334455");
+        }
+
+        Set<String> seen = new HashSet<>();
+        for (int page = 0; page < 3; page++) {
+            WebResponse<List<ContactResponse>> contactResponses = search("/api/contacts", CONTACTS, "name", "John", "total", "none", "page", String.valueOf(page));
+
+            assertEquals(page < 2 ? 10 : 5, contactResponses.getData().size());
+            assertEquals(page < 2, contactResponses.getPaging().getHasNext());
+            assertEquals(page, contactResponses.getPaging().getCurrentPage());
+            assertEquals(TotalType.NONE, contactResponses.getPaging().getTotalType());
+            assertNull(contactResponses.getPaging().getTotalPage());
+            contactResponses.getData().forEach(contact -> assertTrue(seen.add(contact.getId())));
+        }
+        assertEquals(25, seen.size());
+    }
+
+    @Test
+    void testSearchWithEstimatedTotal() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            saveContact(null, "John " + i, "Doe", "john.doe@mail.com", "1122334455");
+        }
+
+        WebResponse<List<ContactResponse>> contactResponses = search("/api/contacts", CONTACTS, "name", "John", "total", "estimated");
+        assertEquals(10, contactResponses.getData().size());
+        assertEquals(TotalType.ESTIMATED, contactResponses.getPaging().getTotalType());
+        assertTrue(contactResponses.getPaging().getTotalPage() >= 2);
+        assertTrue(contactResponses.getPaging().getHasNext());
+
+        mockMvc.perform(
+                get("/api/contacts")
+                        .queryParam("total", "approximate")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isBadRequest()
+        );
+    }
+
+    @Test
+    void testSuggest() throws Exception {
+        saveContact(null, "Alice", "Smith", "alice@mail.com", null);
+        saveContact(null, "Alfred", "Jones", "fred@mail.com", null);
+        saveContact(null, "Bob", "Allen", "bob@mail.com", null);
+        saveContact(null, "Carol", "King", "al_carol@mail.com", null);
+        saveContact("suggest-2", "Alan", null, null, null);
+        saveContact("suggest-1", "Alan", null, null, null);
+
+        // by the lowest matching key, '_' sorting before letters, then by id
+        assertEquals(List.of("Carol", "Alan", "Alan", "Alfred", "Alice", "Bob"), firstNames(search("/api/contacts/suggest", CONTACTS, "prefix", "al", "limit", "10")));
+        assertEquals(List.of("suggest-1", "suggest-2"), search("/api/contacts/suggest", CONTACTS, "prefix", "al", "limit", "3").getData().stream().skip(1).map(ContactResponse::getId).toList());
+        assertEquals(List.of("Alan"), firstNames(search("/api/contacts/suggest", CONTACTS, "prefix", "alan", "limit", "1")));
+        // no successor to bound the range with, or one past the surrogates
+        assertEquals(List.of(), firstNames(search("/api/contacts/suggest", CONTACTS, "prefix", Character.toString(Character.MAX_CODE_POINT), "limit", "10")));
+        assertEquals(List.of(), firstNames(search("/api/contacts/suggest", CONTACTS, "prefix", "\uD7FF", "limit", "10")));
+        assertEquals(List.of("Alice"), firstNames(search("/api/contacts/suggest", CONTACTS, "prefix", "alice s", "limit", "10")));
+        assertEquals(List.of("Carol"), firstNames(search("/api/contacts/suggest", CONTACTS, "prefix", "al_", "limit", "10")));
+        assertEquals(List.of(), firstNames(search("/api/contacts/suggest", CONTACTS, "prefix", "zed", "limit", "10")));
+
+        mockMvc.perform(
+                get("/api/contacts/suggest")
+                        .queryParam("prefix", " ")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isBadRequest()
+        );
+    }
+
+    @Test
+    void testFuzzySearch() throws Exception {
+        saveContact(null, "John", "Smith", null, null);
+        saveContact(null, "Jane", "Doe", null, null);
+        saveContact(null, "Jon", "Smyth", null, null);
+        saveContact(null, "Alice", "Johnson", null, null);
+
+        List<ContactMatchResponse> matches = search("/api/contacts/fuzzy", MATCHES, "name", "Jhon").getData();
+        assertFalse(matches.isEmpty());
+        assertEquals("John", matches.get(0).getContact().getFirstName());
+        for (int i = 1; i < matches.size(); i++) {
+            assertTrue(matches.get(i - 1).getScore() >= matches.get(i).getScore());
+        }
+
+        matches = search("/api/contacts/fuzzy", MATCHES, "name", "smiht").getData();
+        assertEquals(List.of("Smith", "Smyth"), matches.stream().map(match -> match.getContact().getLastName()).sorted().toList());
+
+        assertEquals(1.0, search("/api/contacts/fuzzy", MATCHES, "name", "alice johnson").getData().get(0).getScore());
+        assertTrue(search("/api/contacts/fuzzy", MATCHES, "name", "zzzzzz").getData().isEmpty());
+
+        // neither trigram-similar nor alike as a whole, but "jhon" sounds like "Jon"
+        matches = search("/api/contacts/fuzzy", MATCHES, "name", "jhon smith").getData();
+        assertTrue(matches.stream().anyMatch(match -> match.getContact().getLastName().equals("Smyth")));
+    }
+
+    @Test
+    void testSearchSorted() throws Exception {
+        String[][] names = {{"Carol", "Adams"}, {"Alice", "Cole"}, {"Bob", "Baker"}, {"Alice", "Brown"}};
+        for (int i = 0; i < names.length; i++) {
+            Contact contact = saveContact(null, names[i][0], names[i][1], null, null);
+            contact.setCreatedAt(1000L + i);
+            contactRepository.save(contact);
+        }
+
+        assertEquals(List.of("Adams", "Baker", "Brown", "Cole"), lastNames(search("/api/contacts", CONTACTS, "sort", "lastName")));
+        assertEquals(List.of("Cole", "Brown", "Baker", "Adams"), lastNames(search("/api/contacts", CONTACTS, "sort", "lastName,desc")));
+        assertEquals(List.of("Adams", "Cole", "Baker", "Brown"), lastNames(search("/api/contacts", CONTACTS, "sort", "createdAt,asc")));
+        assertEquals(List.of("Adams", "Baker"), lastNames(search("/api/contacts", CONTACTS, "sort", "firstName,desc")).subList(0, 2));
+
+        for (String sort : new String[]{"phone", "lastName,up", "lastName,asc,id"}) {
+            mockMvc.perform(
+                    get("/api/contacts")
+                            .queryParam("sort", sort)
+                            .accept(MediaType.APPLICATION_JSON_VALUE)
+                            .header("X-API-TOKEN", "testUser")
+            ).andExpectAll(
+                    status().isBadRequest()
+            );
+        }
+    }
+
+    @Test
+    void testSearchUsingNormalizedPhoneAndEmail() throws Exception {
+        String[][] contacts = {
+                {"John", "+62 812-3456", "John.Doe@Mail.com"},
+                {"Jane", "0812 3456", "jane@mail.com"},
+                {"Jack", "0813 9999", "jack@other.org"}
+        };
+        for (String[] values : contacts) {
+            CreateContactRequest request = new CreateContactRequest();
+            request.setFirstName(values[0]);
+            request.setPhone(values[1]);
+            request.setEmail(values[2]);
+            mockMvc.perform(
+                    post("/api/contacts")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .accept(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(request))
+                            .header("X-API-TOKEN", "testUser")
+            ).andExpectAll(
+                    status().isOk()
+            );
+        }
+
+        assertEquals(List.of("Jane", "John"), firstNames(search("/api/contacts", CONTACTS, "phoneExact", "0812-3456")).stream().sorted().toList());
+        assertEquals(List.of("Jack", "Jane", "John"), firstNames(search("/api/contacts", CONTACTS, "phonePrefix", "+62 81")).stream().sorted().toList());
+        assertEquals(List.of("Jack"), firstNames(search("/api/contacts", CONTACTS, "phonePrefix", "00628139")));
+        assertEquals(List.of("John"), firstNames(search("/api/contacts", CONTACTS, "emailExact", "john.doe@mail.com")));
+        assertEquals(List.of("Jane", "John"), firstNames(search("/api/contacts", CONTACTS, "emailDomain", "@MAIL.com")).stream().sorted().toList());
+
+        mockMvc.perform(
+                get("/api/contacts")
+                        .queryParam("phonePrefix", "abc")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isBadRequest()
+        );
+    }
+
+    @Test
+    void testSearchMatchesWildcardsLiterally() throws Exception {
+        saveContact(null, "Al_ce", null, "a\\b@mail.com", "50%");
+        saveContact(null, "Alice", null, "ab@mail.com", "5000");
+
+        // like the in-memory index, the terms are substrings and never patterns
+        assertEquals(List.of("Al_ce"), firstNames(search("/api/contacts", CONTACTS, "name", "l_c")));
+        assertEquals(List.of("Al_ce"), firstNames(search("/api/contacts", CONTACTS, "phone", "0%")));
+        assertEquals(List.of("Al_ce"), firstNames(search("/api/contacts", CONTACTS, "email", "a\\b")));
+        assertEquals(List.of(), firstNames(search("/api/contacts", CONTACTS, "name", "%")));
+    }
+
+    @Test
+    void testSearchAndGetWithFields() throws Exception {
+        saveContact(null, "Bob", "Doe", null, "1122334455");
+        Contact contact = saveContact(null, "Alice", "Doe", null, "1122334455");
+
+        List<Map<String, Object>> page = search("/api/contacts", FIELDS, "fields", "firstName,id", "sort", "firstName").getData();
+        assertEquals(2, page.size());
+        assertEquals(List.of("id", "firstName"), List.copyOf(page.get(0).keySet()));
+        assertEquals("Alice", page.get(0).get("firstName"));
+
+        // past the names every column is read
+        page = search("/api/contacts", FIELDS, "fields", "phone,lastName", "sort", "firstName").getData();
+        assertEquals(List.of("lastName", "phone"), List.copyOf(page.get(0).keySet()));
+        assertEquals("1122334455", page.get(0).get("phone"));
+
+        // the cursor still carries the id when only names were asked for
+        WebResponse<List<Map<String, Object>>> window = search("/api/contacts", FIELDS, "fields", "lastName", "cursor", "", "size", "1");
+        assertEquals(List.of(Map.of("lastName", "Doe")), window.getData());
+        assertNotNull(window.getPaging().getNext());
+
+        WebResponse<Map<String, Object>> response = objectMapper.readValue(mockMvc.perform(
+                get("/api/contacts/" + contact.getId())
+                        .queryParam("fields", "phone")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<WebResponse<Map<String, Object>>>() {});
+        assertEquals(Map.of("phone", "1122334455"), response.getData());
+
+        for (String fields : new String[]{"password", "", "id,"}) {
+            mockMvc.perform(
+                    get("/api/contacts")
+                            .queryParam("fields", fields)
+                            .accept(MediaType.APPLICATION_JSON_VALUE)
+                            .header("X-API-TOKEN", "testUser")
+            ).andExpectAll(
+                    status().isBadRequest()
+            );
+        }
+    }
+
+    @Test
+    void testSearchAndGetExpandingAddresses() throws Exception {
+        Contact alice = null;
+        for (String firstName : new String[]{"Alice", "Bob", "Carol"}) {
+            Contact contact = saveContact(null, firstName, null, null, null);
+            if (!firstName.equals("Bob")) {
+                for (String city : new String[]{"Bogor", "Depok"}) {
+                    Address address = new Address();
+                    address.setId(firstName + "-" + city);
+                    address.setContact(contact);
+                    address.setCity(city);
+                    address.setProvince("West Java");
+                    address.setCountry("Indonesia");
+                    addressRepository.save(address);
+                }
+            }
+            if (firstName.equals("Alice")) {
+                alice = contact;
+            }
+        }
+
+        WebResponse<List<ContactResponse>> page = search("/api/contacts", CONTACTS, "expand", "addresses", "sort", "firstName");
+        assertEquals(3, page.getData().size());
+        assertEquals(List.of("Bogor", "Depok"), page.getData().get(0).getAddresses().stream().map(AddressResponse::getCity).toList());
+        assertEquals(List.of(), page.getData().get(1).getAddresses());
+        assertEquals(List.of("Carol-Bogor", "Carol-Depok"), page.getData().get(2).getAddresses().stream().map(AddressResponse::getId).toList());
+
+        // without expand the key is left out
+        assertFalse(mockMvc.perform(
+                get("/api/contacts")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andReturn().getResponse().getContentAsString().contains("addresses"));
+
+        // fields still narrows the contact, the id is read anyway to find the addresses
+        WebResponse<Map<String, Object>> response = objectMapper.readValue(mockMvc.perform(
+                get("/api/contacts/" + alice.getId())
+                        .queryParam("expand", "addresses")
+                        .queryParam("fields", "firstName")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<WebResponse<Map<String, Object>>>() {});
+        assertEquals(List.of("firstName", "addresses"), List.copyOf(response.getData().keySet()));
+        assertEquals(2, ((List<?>) response.getData().get("addresses")).size());
+
+        mockMvc.perform(
+                get("/api/contacts")
+                        .queryParam("expand", "user")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isBadRequest()
+        );
+    }
+
+    private double counts(String mode) {
+        return meterRegistry.counter("contacts.search.count", "mode", mode).count();
+    }
+
+    @Test
+    void testExactCountOnlyForFullPages() throws Exception {
+        for (int i = 0; i < 15; i++) {
+            saveContact("contact-" + i, "Test " + i, null, null, null);
+        }
+        double forked = counts("forked");
+        double inline = counts("inline");
+
+        // a full page is counted on a second connection meanwhile
+        WebResponse<List<ContactResponse>> response = search("/api/contacts", CONTACTS, "total", "exact", "page", "0", "expand", "addresses");
+        assertEquals(10, response.getData().size());
+        assertEquals(2, response.getPaging().getTotalPage());
+        assertEquals(forked + 1, counts("forked"));
+        assertEquals(inline, counts("inline"));
+
+        // the short last page tells the total, so its count is dropped
+        response = search("/api/contacts", CONTACTS, "total", "exact", "page", "1", "expand", "addresses");
+        assertEquals(5, response.getData().size());
+        assertEquals(2, response.getPaging().getTotalPage());
+        assertEquals(forked + 1, counts("forked"));
+        assertEquals(inline, counts("inline"));
+
+        // forked alongside the page query even with no addresses to embed
+        response = search("/api/contacts", CONTACTS, "total", "exact", "page", "0");
+        assertEquals(2, response.getPaging().getTotalPage());
+        assertEquals(forked + 2, counts("forked"));
+        assertEquals(inline, counts("inline"));
+
+        // no spare connections left to fork on
+        int reservedConnections = (int) ReflectionTestUtils.getField(searchCountExecutor, "reservedConnections");
+        try {
+            ReflectionTestUtils.setField(searchCountExecutor, "reservedConnections", Integer.MAX_VALUE);
+            response = search("/api/contacts", CONTACTS, "total", "exact", "page", "0", "expand", "addresses");
+        } finally {
+            ReflectionTestUtils.setField(searchCountExecutor, "reservedConnections", reservedConnections);
+        }
+        assertEquals(10, response.getData().size());
+        assertEquals(2, response.getPaging().getTotalPage());
+        assertEquals(forked + 2, counts("forked"));
+        assertEquals(inline + 1, counts("inline"));
+    }
+}
@@ -0,0 +1,344 @@
+package springbootpnz.restapi.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import springbootpnz.restapi.entity.Contact;
+import springbootpnz.restapi.entity.Session;
+import springbootpnz.restapi.entity.User;
+import springbootpnz.restapi.model.ContactMatchResponse;
+import springbootpnz.restapi.model.ContactResponse;
+import springbootpnz.restapi.model.TotalType;
+import springbootpnz.restapi.model.CreateContactRequest;
+import springbootpnz.restapi.model.UpdateContactRequest;
+import springbootpnz.restapi.model.WebResponse;
+import springbootpnz.restapi.repository.AddressRepository;
+import springbootpnz.restapi.repository.ContactRepository;
+import springbootpnz.restapi.repository.SessionRepository;
+import springbootpnz.restapi.repository.UserRepository;
+import springbootpnz.restapi.search.ContactSearchCache;
+import springbootpnz.restapi.search.ContactIndexes;
+import springbootpnz.restapi.security.BCrypt;
+import springbootpnz.restapi.security.TokenHash;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = "restapi.contacts.index.enabled=true")
+@AutoConfigureMockMvc
+class IndexedContactControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private AddressRepository addressRepository;
+
+    @Autowired
+    private ContactRepository contactRepository;
+
+    @Autowired
+    private ContactIndexes contactIndexes;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ContactSearchCache contactSearchCache;
+
+    @BeforeEach
+    void setUp() {
+        addressRepository.deleteAll();
+        contactRepository.deleteAll();
+        userRepository.deleteAll();
+        contactIndexes.invalidateAll();
+        contactSearchCache.invalidateAll();
+
+        User user = new User();
+        user.setUsername("johndoe");
+        user.setName("John Doe");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
+        userRepository.save(user);
+
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testUser"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() + 10000000L);
+        sessionRepository.save(session);
+    }
+
+    private WebResponse<List<ContactResponse>> search(String param, String value, int page) throws Exception {
+        return objectMapper.readValue(mockMvc.perform(
+                get("/api/contacts")
+                        .queryParam(param, value)
+                        .queryParam("page", String.valueOf(page))
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<WebResponse<List<ContactResponse>>>() {});
+    }
+
+    @Test
+    void testSearchFromIndex() throws Exception {
+        User user = userRepository.findById("johndoe").orElse(null);
+
+        for (int i = 0; i < 25; i++) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName("John " + i);
+            contact.setLastName("Doe");
+            contact.setEmail("john.doe@mail.com");
+            contact.setPhone("1122334455");
+            contactRepository.save(contact);
+        }
+
+        List<String> ids = new ArrayList<>();
+        for (int page = 0; page < 3; page++) {
+            WebResponse<List<ContactResponse>> contactResponses = search("name", "John", page);
+
+            assertNull(contactResponses.getErrors());
+            assertEquals(page < 2 ? 10 : 5, contactResponses.getData().size());
+            assertEquals(3, contactResponses.getPaging().getTotalPage());
+            assertEquals(page, contactResponses.getPaging().getCurrentPage());
+            contactResponses.getData().forEach(contact -> ids.add(contact.getId()));
+        }
+        assertEquals(25, ids.size());
+        assertEquals(ids.stream().sorted().distinct().toList(), ids);
+
+        assertEquals(10, search("name", "Doe", 0).getData().size());
+        assertEquals(10, search("name", "J", 0).getData().size());
+        assertEquals(1, search("name", "John 17", 0).getData().size());
+        assertEquals(10, search("phone", "1122", 0).getData().size());
+        assertEquals(10, search("email", "john.", 0).getData().size());
+        assertEquals(0, search("name", "john", 0).getData().size());
+        assertEquals(0, search("email", "jane", 0).getData().size());
+
+        // the index always counts exactly, whichever total was asked for
+        WebResponse<List<ContactResponse>> estimated = objectMapper.readValue(mockMvc.perform(
+                get("/api/contacts")
+                        .queryParam("name", "John")
+                        .queryParam("total", "estimated")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<WebResponse<List<ContactResponse>>>() {});
+        assertEquals(TotalType.EXACT, estimated.getPaging().getTotalType());
+        assertEquals(3, estimated.getPaging().getTotalPage());
+    }
+
+    @Test
+    void testSearchMatchesWildcardsLiterally() throws Exception {
+        User user = userRepository.findById("johndoe").orElse(null);
+        for (String[] values : new String[][]{{"Al_ce", "50%", "a\\b@mail.com"}, {"Alice", "5000", "ab@mail.com"}}) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName(values[0]);
+            contact.setPhone(values[1]);
+            contact.setEmail(values[2]);
+            contactRepository.save(contact);
+        }
+
+        assertEquals(List.of("Al_ce"), search("name", "l_c", 0).getData().stream().map(ContactResponse::getFirstName).toList());
+        assertEquals(List.of("Al_ce"), search("phone", "0%", 0).getData().stream().map(ContactResponse::getFirstName).toList());
+        assertEquals(List.of("Al_ce"), search("email", "a\\b", 0).getData().stream().map(ContactResponse::getFirstName).toList());
+        assertEquals(0, search("name", "%", 0).getData().size());
+    }
+
+    @Test
+    void testIndexFollowsWrites() throws Exception {
+        assertEquals(0, search("name", "Alice", 0).getData().size());
+
+        CreateContactRequest createRequest = new CreateContactRequest();
+        createRequest.setFirstName("Alice");
+        createRequest.setLastName("Liddell");
+        createRequest.setEmail("alice@mail.com");
+        createRequest.setPhone("5566778899");
+        WebResponse<ContactResponse> created = objectMapper.readValue(mockMvc.perform(
+                post("/api/contacts")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createRequest))
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<WebResponse<ContactResponse>>() {});
+        String contactId = created.getData().getId();
+
+        assertEquals(1, search("name", "Alice", 0).getData().size());
+
+        UpdateContactRequest updateRequest = new UpdateContactRequest();
+        updateRequest.setFirstName("Bob");
+        mockMvc.perform(
+                put("/api/contacts/" + contactId)
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(updateRequest))
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        );
+
+        assertEquals(0, search("name", "Alice", 0).getData().size());
+        assertEquals(1, search("name", "Bob", 0).getData().size());
+        assertEquals(1, search("name", "Liddell", 0).getData().size());
+
+        mockMvc.perform(
+                delete("/api/contacts/" + contactId)
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        );
+
+        assertEquals(0, search("name", "Bob", 0).getData().size());
+    }
+
+    @Test
+    void testSuggestFollowsWrites() throws Exception {
+        assertEquals(0, suggest("ali", 10).size());
+
+        CreateContactRequest createRequest = new CreateContactRequest();
+        createRequest.setFirstName("Alice");
+        createRequest.setLastName("Liddell");
+        WebResponse<ContactResponse> created = objectMapper.readValue(mockMvc.perform(
+                post("/api/contacts")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createRequest))
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<WebResponse<ContactResponse>>() {});
+
+        assertEquals(1, suggest("ali", 10).size());
+        assertEquals(1, suggest("lid", 10).size());
+
+        mockMvc.perform(
+                delete("/api/contacts/" + created.getData().getId())
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        );
+
+        assertEquals(0, suggest("ali", 10).size());
+    }
+
+    @Test
+    void testSuggest() throws Exception {
+        User user = userRepository.findById("johndoe").orElse(null);
+
+        String[][] names = {{"Alice", "Smith", "alice@mail.com"}, {"Alfred", "Jones", "fred@mail.com"}, {"Bob", "Allen", "bob@mail.com"}, {"Carol", "King", "al_carol@mail.com"}};
+        for (String[] name : names) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName(name[0]);
+            contact.setLastName(name[1]);
+            contact.setEmail(name[2]);
+            contactRepository.save(contact);
+        }
+        for (String id : new String[]{"suggest-2", "suggest-1"}) {
+            Contact contact = new Contact();
+            contact.setId(id);
+            contact.setUser(user);
+            contact.setFirstName("Alan");
+            contactRepository.save(contact);
+        }
+
+        // by the lowest matching key, '_' sorting before letters, then by id
+        assertEquals(List.of("Carol", "Alan", "Alan", "Alfred", "Alice", "Bob"), suggest("al", 10).stream().map(ContactResponse::getFirstName).toList());
+        assertEquals(List.of("suggest-1", "suggest-2"), suggest("al", 3).stream().skip(1).map(ContactResponse::getId).toList());
+        assertEquals(List.of("Alan"), suggest("alan", 1).stream().map(ContactResponse::getFirstName).toList());
+        assertEquals(List.of("Alice"), suggest("alice s", 10).stream().map(ContactResponse::getFirstName).toList());
+        assertEquals(List.of("Carol"), suggest("al_", 10).stream().map(ContactResponse::getFirstName).toList());
+        assertEquals(0, suggest("zed", 10).size());
+
+        mockMvc.perform(
+                get("/api/contacts/suggest")
+                        .queryParam("prefix", " ")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isBadRequest()
+        );
+    }
+
+    private List<ContactResponse> suggest(String prefix, int limit) throws Exception {
+        WebResponse<List<ContactResponse>> response = objectMapper.readValue(mockMvc.perform(
+                get("/api/contacts/suggest")
+                        .queryParam("prefix", prefix)
+                        .queryParam("limit", String.valueOf(limit))
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<WebResponse<List<ContactResponse>>>() {});
+        assertNull(response.getErrors());
+        return response.getData();
+    }
+
+    @Test
+    void testFuzzySearch() throws Exception {
+        User user = userRepository.findById("johndoe").orElse(null);
+
+        String[][] names = {{"John", "Smith"}, {"Jane", "Doe"}, {"Jon", "Smyth"}, {"Alice", "Johnson"}};
+        for (String[] name : names) {
+            Contact contact = new Contact();
+            contact.setId(UUID.randomUUID().toString());
+            contact.setUser(user);
+            contact.setFirstName(name[0]);
+            contact.setLastName(name[1]);
+            contactRepository.save(contact);
+        }
+
+        List<ContactMatchResponse> matches = fuzzy("Jhon");
+        assertFalse(matches.isEmpty());
+        assertEquals("John", matches.get(0).getContact().getFirstName());
+        for (int i = 1; i < matches.size(); i++) {
+            assertTrue(matches.get(i - 1).getScore() >= matches.get(i).getScore());
+        }
+
+        matches = fuzzy("smiht");
+        assertEquals(List.of("Smith", "Smyth"), matches.stream().map(match -> match.getContact().getLastName()).sorted().toList());
+
+        assertEquals(1.0, fuzzy("alice johnson").get(0).getScore());
+        assertTrue(fuzzy("zzzzzz").isEmpty());
+        assertTrue(fuzzy("jhon smith").stream().anyMatch(match -> match.getContact().getLastName().equals("Smyth")));
+    }
+
+    private List<ContactMatchResponse> fuzzy(String name) throws Exception {
+        WebResponse<List<ContactMatchResponse>> response = objectMapper.readValue(mockMvc.perform(
+                get("/api/contacts/fuzzy")
+                        .queryParam("name", name)
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", "testUser")
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString(), new TypeReference<WebResponse<List<ContactMatchResponse>>>() {});
+        assertNull(response.getErrors());
+        return response.getData();
+    }
+}
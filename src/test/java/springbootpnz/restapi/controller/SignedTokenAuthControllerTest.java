@@ -0,0 +1,180 @@
+package springbootpnz.restapi.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import springbootpnz.restapi.entity.User;
+import springbootpnz.restapi.model.LoginUserRequest;
+import springbootpnz.restapi.model.TokenResponse;
+import springbootpnz.restapi.model.UpdateUserRequest;
+import springbootpnz.restapi.model.UserResponse;
+import springbootpnz.restapi.model.WebResponse;
+import springbootpnz.restapi.repository.RevokedTokenRepository;
+import springbootpnz.restapi.repository.RevokedUserRepository;
+import springbootpnz.restapi.repository.SessionRepository;
+import springbootpnz.restapi.repository.UserRepository;
+import springbootpnz.restapi.security.BCrypt;
+import springbootpnz.restapi.security.SignedTokens;
+import springbootpnz.restapi.security.TokenMode;
+import springbootpnz.restapi.security.TokenHash;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = {
+        "restapi.auth.token-mode=signed",
+        "restapi.auth.signing-keys=test:a2tra2tra2tra2tra2tra2tra2tra2tra2tra2tra2s="
+})
+@AutoConfigureMockMvc
+class SignedTokenAuthControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private SessionRepository sessionRepository;
+
+    @Autowired
+    private RevokedTokenRepository revokedTokenRepository;
+
+    @Autowired
+    private RevokedUserRepository revokedUserRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        revokedTokenRepository.deleteAll();
+        revokedUserRepository.deleteAll();
+
+        User user = new User();
+        user.setName("JhonDoe");
+        user.setUsername("signedUser");
+        user.setPassword(BCrypt.hashpw("password", BCrypt.gensalt()));
+        userRepository.save(user);
+    }
+
+    private String login() throws Exception {
+        LoginUserRequest request = new LoginUserRequest();
+        request.setUsername("signedUser");
+        request.setPassword("password");
+
+        String content = mockMvc.perform(
+                post("/api/users/login")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(request))
+        ).andExpectAll(
+                status().isOk()
+        ).andReturn().getResponse().getContentAsString();
+
+        WebResponse<TokenResponse> response = objectMapper.readValue(content, new TypeReference<WebResponse<TokenResponse>>() {});
+        return response.getData().getToken();
+    }
+
+    @Test
+    void testLoginIssuesSignedToken() throws Exception {
+        String token = login();
+
+        assertTrue(token.startsWith("v1.test."));
+        assertFalse(sessionRepository.existsById(TokenHash.hash(token)));
+
+        mockMvc.perform(
+                get("/api/users")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", token)
+        ).andExpectAll(
+                status().isOk()
+        ).andDo(result -> {
+            WebResponse<UserResponse> response = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<WebResponse<UserResponse>>() {});
+            assertNull(response.getErrors());
+            assertEquals("signedUser", response.getData().getUsername());
+            assertEquals("JhonDoe", response.getData().getName());
+        });
+    }
+
+    @Test
+    void testTamperedTokenRejected() throws Exception {
+        String token = login();
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        mockMvc.perform(
+                get("/api/users")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", tampered)
+        ).andExpectAll(
+                status().isUnauthorized()
+        );
+    }
+
+    @Test
+    void testLogoutRevokesToken() throws Exception {
+        String token = login();
+
+        mockMvc.perform(
+                delete("/api/users/logout")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", token)
+        ).andExpectAll(
+                status().isOk()
+        );
+
+        assertTrue(revokedTokenRepository.existsById(TokenHash.hash(token)));
+
+        mockMvc.perform(
+                get("/api/users")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", token)
+        ).andExpectAll(
+                status().isUnauthorized()
+        );
+    }
+
+    @Test
+    void testPasswordChangeRevokesTokens() throws Exception {
+        String token = login();
+
+        UpdateUserRequest request = new UpdateUserRequest();
+        request.setPassword("newPassword");
+        mockMvc.perform(
+                patch("/api/users/update")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .contentType(MediaType.APPLICATION_JSON_VALUE)
+                        .content(objectMapper.writeValueAsString(request))
+                        .header("X-API-TOKEN", token)
+        ).andExpectAll(
+                status().isOk()
+        );
+
+        assertTrue(revokedUserRepository.existsById("signedUser"));
+
+        mockMvc.perform(
+                get("/api/users")
+                        .accept(MediaType.APPLICATION_JSON_VALUE)
+                        .header("X-API-TOKEN", token)
+        ).andExpectAll(
+                status().isUnauthorized()
+        );
+    }
+
+    @Test
+    void testSigningKeyIdWithDotRejected() {
+        assertThrows(IllegalStateException.class, () -> new SignedTokens(TokenMode.SIGNED,
+                List.of("bad.key:a2tra2tra2tra2tra2tra2tra2tra2tra2tra2tra2s="), Duration.ofDays(1),
+                objectMapper, revokedTokenRepository, revokedUserRepository));
+    }
+}
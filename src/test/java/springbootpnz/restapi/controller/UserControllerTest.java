@@ -9,13 +9,16 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import springbootpnz.restapi.entity.Session;
 import springbootpnz.restapi.entity.User;
 import springbootpnz.restapi.model.RegisterUserRequest;
 import springbootpnz.restapi.model.UpdateUserRequest;
 import springbootpnz.restapi.model.UserResponse;
 import springbootpnz.restapi.model.WebResponse;
+import springbootpnz.restapi.repository.SessionRepository;
 import springbootpnz.restapi.repository.UserRepository;
 import springbootpnz.restapi.security.BCrypt;
+import springbootpnz.restapi.security.TokenHash;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.MockMvcBuilder.*;
@@ -32,6 +35,9 @@ class UserControllerTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private SessionRepository sessionRepository;
+
 
     @Autowired
     private ObjectMapper objectMapper;
@@ -89,10 +95,15 @@ class UserControllerTest {
         user.setUsername("testUser");
         user.setPassword("password");
         user.setName("Joko Anwar");
-        user.setToken("testToken");
-        user.setTokenExpiredAt(System.currentTimeMillis() + 100000000L);
         userRepository.save(user);
 
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testToken"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() + 100000000L);
+        sessionRepository.save(session);
+
         mockMvc.perform(
                 get("/api/users")
                         .accept(MediaType.APPLICATION_JSON_VALUE)
@@ -146,10 +157,15 @@ class UserControllerTest {
         user.setUsername("testUser");
         user.setPassword("password");
         user.setName("Joko Anwar");
-        user.setToken("testToken");
-        user.setTokenExpiredAt(System.currentTimeMillis() - 100000000L);
         userRepository.save(user);
 
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testToken"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() - 100000000L);
+        sessionRepository.save(session);
+
 
         mockMvc.perform(
                 get("/api/users")
@@ -188,11 +204,16 @@ class UserControllerTest {
         user.setPassword(BCrypt.hashpw("testPassword", BCrypt.gensalt()));
         user.setName("Joko Anwar");
 
-        user.setToken("testToken");
-        user.setTokenExpiredAt(System.currentTimeMillis() + 100000000L);
 
         userRepository.save(user);
 
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testToken"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() + 100000000L);
+        sessionRepository.save(session);
+
         UpdateUserRequest request = new UpdateUserRequest();
         request.setName("Update Testing");
 
@@ -219,11 +240,16 @@ class UserControllerTest {
         user.setPassword(BCrypt.hashpw("testPassword", BCrypt.gensalt()));
         user.setName("Joko Anwar");
 
-        user.setToken("testToken");
-        user.setTokenExpiredAt(System.currentTimeMillis() + 100000000L);
 
         userRepository.save(user);
 
+        Session session = new Session();
+        session.setTokenHash(TokenHash.hash("testToken"));
+        session.setUser(user);
+        session.setCreatedAt(System.currentTimeMillis());
+        session.setExpiredAt(System.currentTimeMillis() + 100000000L);
+        sessionRepository.save(session);
+
         UpdateUserRequest request = new UpdateUserRequest();
         request.setName("Update Testing");
         request.setPassword("0987654321");